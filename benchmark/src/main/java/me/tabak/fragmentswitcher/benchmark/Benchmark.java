@@ -0,0 +1,46 @@
+/*
+ * Copyright 2014 Jacob Tabak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tabak.fragmentswitcher.benchmark;
+
+/**
+ * A single measured operation. The runner calls {@link #setUp()} before every sample, then
+ * {@link #run(int)} a calibrated number of times, then {@link #tearDown()}. Only the calls to
+ * {@link #run(int)} are timed.
+ */
+abstract class Benchmark {
+  private final String mName;
+
+  Benchmark(String name) {
+    mName = name;
+  }
+
+  String getName() {
+    return mName;
+  }
+
+  void setUp() {
+  }
+
+  /**
+   * Performs one operation.
+   * @param iteration The index of this operation within the current sample.
+   */
+  abstract void run(int iteration);
+
+  void tearDown() {
+  }
+}
@@ -0,0 +1,440 @@
+/*
+ * Copyright 2014 Jacob Tabak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tabak.fragmentswitcher.benchmark;
+
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.support.v4.app.FragmentActivity;
+import android.util.Log;
+import android.view.View;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import me.tabak.fragmentswitcher.FragmentArrayPagerAdapter;
+import me.tabak.fragmentswitcher.FragmentFactory;
+import me.tabak.fragmentswitcher.FragmentStateArrayPagerAdapter;
+import me.tabak.fragmentswitcher.FragmentStateFactoryPagerAdapter;
+import me.tabak.fragmentswitcher.FragmentSwitcher;
+
+/**
+ * Runs the benchmarks one after another on the main thread and reports the results to logcat
+ * under the {@value #TAG} tag and on screen.  Each benchmark runs in its own message so the
+ * activity stays responsive between them.  Run it with
+ * {@code ./gradlew :benchmark:installDebug} and launch it from the device, preferably with the
+ * screen on and the device idle.
+ */
+public class BenchmarkActivity extends FragmentActivity {
+  private static final String TAG = "FragmentSwitcherBench";
+  private static final int[] ADAPTER_SIZES = {10, 1000, 100000};
+  private static final int SWITCH_PAGE_COUNT = 100;
+  private static final int VISITED_PAGE_COUNT = 20;
+  private final List<Benchmark> mPending = new ArrayList<Benchmark>();
+  private FragmentSwitcher mFragmentSwitcher;
+  private TextView mResultsView;
+  private final Runnable mRunNext = new Runnable() {
+    @Override
+    public void run() {
+      if (mPending.isEmpty()) {
+        report("Done.");
+        return;
+      }
+      BenchmarkRunner.Result result = BenchmarkRunner.run(mPending.remove(0));
+      report(result.toString());
+      mFragmentSwitcher.post(this);
+    }
+  };
+
+  @Override
+  protected void onCreate(Bundle savedInstanceState) {
+    super.onCreate(savedInstanceState);
+    setContentView(R.layout.activity_benchmark);
+    mFragmentSwitcher = (FragmentSwitcher) findViewById(R.id.fragment_switcher);
+    mResultsView = (TextView) findViewById(R.id.results);
+  }
+
+  @Override
+  protected void onResume() {
+    super.onResume();
+    if (mPending.isEmpty()) {
+      mResultsView.setText("");
+      mPending.addAll(createBenchmarks());
+    }
+    // Posting through the view defers the first run until the window is attached.
+    mFragmentSwitcher.post(mRunNext);
+  }
+
+  @Override
+  protected void onPause() {
+    super.onPause();
+    mFragmentSwitcher.removeCallbacks(mRunNext);
+  }
+
+  private List<Benchmark> createBenchmarks() {
+    List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+    benchmarks.add(new SwitchBenchmark());
+    benchmarks.add(new InsertBeforeCurrentBenchmark(1000));
+    addFillBenchmarks(benchmarks, new FactoryAdapterFiller());
+    addFillBenchmarks(benchmarks, new FragmentArrayAdapterFiller());
+    addFillBenchmarks(benchmarks, new FragmentStateArrayAdapterFiller());
+    benchmarks.add(new SavedStateBenchmark());
+    return benchmarks;
+  }
+
+  private static <A, I> void addFillBenchmarks(List<Benchmark> benchmarks,
+                                               AdapterFiller<A, I> filler) {
+    for (int size : ADAPTER_SIZES) {
+      benchmarks.add(new AddAllBenchmark<A, I>(filler, size));
+      benchmarks.add(new InsertBenchmark<A, I>(filler, size));
+    }
+  }
+
+  private void report(String line) {
+    Log.i(TAG, line);
+    mResultsView.append(line + "\n");
+  }
+
+  private FragmentStateFactoryPagerAdapter<BenchmarkFragment> newAdapter() {
+    return new FragmentStateFactoryPagerAdapter<BenchmarkFragment>(getSupportFragmentManager());
+  }
+
+  private static List<FragmentFactory<BenchmarkFragment>> newFactories(int count) {
+    List<FragmentFactory<BenchmarkFragment>> factories =
+        new ArrayList<FragmentFactory<BenchmarkFragment>>(count);
+    for (int i = 0; i < count; i++) {
+      factories.add(FragmentFactory.forClass(BenchmarkFragment.class));
+    }
+    return factories;
+  }
+
+  private static List<BenchmarkFragment> newFragments(int count) {
+    List<BenchmarkFragment> fragments = new ArrayList<BenchmarkFragment>(count);
+    for (int i = 0; i < count; i++) {
+      fragments.add(new BenchmarkFragment());
+    }
+    return fragments;
+  }
+
+  /**
+   * Attaches an adapter with the given number of pages to the switcher.
+   */
+  private FragmentStateFactoryPagerAdapter<BenchmarkFragment> attachAdapter(int pageCount) {
+    FragmentStateFactoryPagerAdapter<BenchmarkFragment> adapter = newAdapter();
+    adapter.addAll(newFactories(pageCount));
+    mFragmentSwitcher.setAdapter(adapter);
+    layoutNow();
+    return adapter;
+  }
+
+  /**
+   * Setting an adapter defers population to the next layout pass, which would otherwise only
+   * happen after the current message.  Lay the switcher out in place so the benchmark that
+   * follows measures switches rather than the first population.
+   */
+  private void layoutNow() {
+    FragmentSwitcher switcher = mFragmentSwitcher;
+    switcher.measure(
+        View.MeasureSpec.makeMeasureSpec(switcher.getWidth(), View.MeasureSpec.EXACTLY),
+        View.MeasureSpec.makeMeasureSpec(switcher.getHeight(), View.MeasureSpec.EXACTLY));
+    switcher.layout(switcher.getLeft(), switcher.getTop(), switcher.getRight(),
+        switcher.getBottom());
+  }
+
+  /**
+   * A full switch: populate destroys the current fragment, instantiates the next one and commits
+   * the transaction synchronously.
+   */
+  private class SwitchBenchmark extends Benchmark {
+    SwitchBenchmark() {
+      super("setCurrentItem (" + SWITCH_PAGE_COUNT + " pages)");
+    }
+
+    @Override
+    void setUp() {
+      attachAdapter(SWITCH_PAGE_COUNT);
+    }
+
+    @Override
+    void run(int iteration) {
+      mFragmentSwitcher.setCurrentItem((iteration + 1) % SWITCH_PAGE_COUNT);
+    }
+
+    @Override
+    void tearDown() {
+      mFragmentSwitcher.setAdapter(null);
+    }
+  }
+
+  /**
+   * Inserting ahead of the current page shifts every position, which exercises
+   * dataSetChanged and the adapter's position lookups.  The switcher populates on the next
+   * frame after a data set change, so each insert is followed by a measure and layout that
+   * run the populate within the timed call.
+   */
+  private class InsertBeforeCurrentBenchmark extends Benchmark {
+    private final int mPageCount;
+    private FragmentStateFactoryPagerAdapter<BenchmarkFragment> mAdapter;
+
+    InsertBeforeCurrentBenchmark(int pageCount) {
+      super("insert before current + populate (" + pageCount + " pages)");
+      mPageCount = pageCount;
+    }
+
+    @Override
+    void setUp() {
+      mAdapter = attachAdapter(mPageCount);
+      mFragmentSwitcher.setCurrentItem(mPageCount / 2);
+    }
+
+    @Override
+    void run(int iteration) {
+      mAdapter.insert(FragmentFactory.forClass(BenchmarkFragment.class), 0);
+      layoutNow();
+    }
+
+    @Override
+    void tearDown() {
+      mFragmentSwitcher.setAdapter(null);
+      mAdapter = null;
+    }
+  }
+
+  /**
+   * Fills one of the library's array adapters, so the same benchmarks can run on each of them.
+   *
+   * @param <A> The adapter
+   * @param <I> The items it is filled with
+   */
+  private abstract static class AdapterFiller<A, I> {
+    final String mName;
+
+    AdapterFiller(String name) {
+      mName = name;
+    }
+
+    abstract A newAdapter();
+
+    abstract List<I> newItems(int count);
+
+    abstract void addAll(A adapter, List<I> items);
+
+    abstract void insert(A adapter, int index);
+
+    abstract int getCount(A adapter);
+  }
+
+  private class FactoryAdapterFiller
+      extends AdapterFiller<FragmentStateFactoryPagerAdapter<BenchmarkFragment>,
+                           FragmentFactory<BenchmarkFragment>> {
+    FactoryAdapterFiller() {
+      super("FragmentStateFactoryPagerAdapter");
+    }
+
+    @Override
+    FragmentStateFactoryPagerAdapter<BenchmarkFragment> newAdapter() {
+      return BenchmarkActivity.this.newAdapter();
+    }
+
+    @Override
+    List<FragmentFactory<BenchmarkFragment>> newItems(int count) {
+      return newFactories(count);
+    }
+
+    @Override
+    void addAll(FragmentStateFactoryPagerAdapter<BenchmarkFragment> adapter,
+                List<FragmentFactory<BenchmarkFragment>> items) {
+      adapter.addAll(items);
+    }
+
+    @Override
+    void insert(FragmentStateFactoryPagerAdapter<BenchmarkFragment> adapter, int index) {
+      adapter.insert(FragmentFactory.forClass(BenchmarkFragment.class), index);
+    }
+
+    @Override
+    int getCount(FragmentStateFactoryPagerAdapter<BenchmarkFragment> adapter) {
+      return adapter.getCount();
+    }
+  }
+
+  private class FragmentArrayAdapterFiller
+      extends AdapterFiller<FragmentArrayPagerAdapter<BenchmarkFragment>, BenchmarkFragment> {
+    FragmentArrayAdapterFiller() {
+      super("FragmentArrayPagerAdapter");
+    }
+
+    @Override
+    FragmentArrayPagerAdapter<BenchmarkFragment> newAdapter() {
+      return new FragmentArrayPagerAdapter<BenchmarkFragment>(getSupportFragmentManager());
+    }
+
+    @Override
+    List<BenchmarkFragment> newItems(int count) {
+      return newFragments(count);
+    }
+
+    @Override
+    void addAll(FragmentArrayPagerAdapter<BenchmarkFragment> adapter,
+                List<BenchmarkFragment> items) {
+      adapter.addAll(items);
+    }
+
+    @Override
+    void insert(FragmentArrayPagerAdapter<BenchmarkFragment> adapter, int index) {
+      adapter.insert(new BenchmarkFragment(), index);
+    }
+
+    @Override
+    int getCount(FragmentArrayPagerAdapter<BenchmarkFragment> adapter) {
+      return adapter.getCount();
+    }
+  }
+
+  private class FragmentStateArrayAdapterFiller
+      extends AdapterFiller<FragmentStateArrayPagerAdapter<BenchmarkFragment>, BenchmarkFragment> {
+    FragmentStateArrayAdapterFiller() {
+      super("FragmentStateArrayPagerAdapter");
+    }
+
+    @Override
+    FragmentStateArrayPagerAdapter<BenchmarkFragment> newAdapter() {
+      return new FragmentStateArrayPagerAdapter<BenchmarkFragment>(getSupportFragmentManager());
+    }
+
+    @Override
+    List<BenchmarkFragment> newItems(int count) {
+      return newFragments(count);
+    }
+
+    @Override
+    void addAll(FragmentStateArrayPagerAdapter<BenchmarkFragment> adapter,
+                List<BenchmarkFragment> items) {
+      adapter.addAll(items);
+    }
+
+    @Override
+    void insert(FragmentStateArrayPagerAdapter<BenchmarkFragment> adapter, int index) {
+      adapter.insert(new BenchmarkFragment(), index);
+    }
+
+    @Override
+    int getCount(FragmentStateArrayPagerAdapter<BenchmarkFragment> adapter) {
+      return adapter.getCount();
+    }
+  }
+
+  /**
+   * Fills a detached adapter, which measures the bookkeeping done per added item.
+   */
+  private static class AddAllBenchmark<A, I> extends Benchmark {
+    private final AdapterFiller<A, I> mFiller;
+    private final int mSize;
+    private List<I> mItems;
+
+    AddAllBenchmark(AdapterFiller<A, I> filler, int size) {
+      super(filler.mName + ".addAll (" + size + " items)");
+      mFiller = filler;
+      mSize = size;
+    }
+
+    @Override
+    void setUp() {
+      // Created on first use, so only the running benchmark holds its items.
+      if (mItems == null) {
+        mItems = mFiller.newItems(mSize);
+      }
+    }
+
+    @Override
+    void run(int iteration) {
+      mFiller.addAll(mFiller.newAdapter(), mItems);
+    }
+  }
+
+  /**
+   * Inserts into the middle of a detached adapter.
+   */
+  private static class InsertBenchmark<A, I> extends Benchmark {
+    private final AdapterFiller<A, I> mFiller;
+    private final int mSize;
+    private List<I> mItems;
+    private A mAdapter;
+
+    InsertBenchmark(AdapterFiller<A, I> filler, int size) {
+      super(filler.mName + ".insert at middle (" + size + " items)");
+      mFiller = filler;
+      mSize = size;
+    }
+
+    @Override
+    void setUp() {
+      if (mItems == null) {
+        mItems = mFiller.newItems(mSize);
+      }
+      mAdapter = mFiller.newAdapter();
+      mFiller.addAll(mAdapter, mItems);
+    }
+
+    @Override
+    void run(int iteration) {
+      mFiller.insert(mAdapter, mFiller.getCount(mAdapter) / 2);
+    }
+
+    @Override
+    void tearDown() {
+      mAdapter = null;
+    }
+  }
+
+  /**
+   * Saves the switcher after a number of pages have been visited, writes the state to a parcel
+   * and reads it back, as happens when the activity is stopped and recreated.
+   */
+  private class SavedStateBenchmark extends Benchmark {
+    SavedStateBenchmark() {
+      super("SavedState round trip (" + VISITED_PAGE_COUNT + " visited pages)");
+    }
+
+    @Override
+    void setUp() {
+      attachAdapter(VISITED_PAGE_COUNT);
+      for (int i = 1; i < VISITED_PAGE_COUNT; i++) {
+        mFragmentSwitcher.setCurrentItem(i);
+      }
+    }
+
+    @Override
+    void run(int iteration) {
+      Parcelable state = mFragmentSwitcher.onSaveInstanceState();
+      Parcel parcel = Parcel.obtain();
+      try {
+        parcel.writeParcelable(state, 0);
+        parcel.setDataPosition(0);
+        parcel.readParcelable(getClassLoader());
+      } finally {
+        parcel.recycle();
+      }
+    }
+
+    @Override
+    void tearDown() {
+      mFragmentSwitcher.setAdapter(null);
+    }
+  }
+}
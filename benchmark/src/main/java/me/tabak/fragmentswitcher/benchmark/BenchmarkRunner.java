@@ -0,0 +1,99 @@
+/*
+ * Copyright 2014 Jacob Tabak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tabak.fragmentswitcher.benchmark;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * A minimal harness in the spirit of JMH: it warms an operation up, calibrates how many
+ * operations fit in a sample, then reports the distribution of per-operation times across
+ * samples. Everything runs on the calling thread, since fragment operations must run on the
+ * main thread.
+ */
+final class BenchmarkRunner {
+  private static final long WARMUP_NANOS = 500 * 1000 * 1000L;
+  private static final long TARGET_SAMPLE_NANOS = 50 * 1000 * 1000L;
+  private static final int MAX_OPERATIONS_PER_SAMPLE = 1 << 16;
+  private static final int SAMPLE_COUNT = 15;
+
+  private BenchmarkRunner() {
+  }
+
+  static Result run(Benchmark benchmark) {
+    int operations = 1;
+    long warmupEnd = System.nanoTime() + WARMUP_NANOS;
+    while (true) {
+      long elapsed = sample(benchmark, operations);
+      if (System.nanoTime() >= warmupEnd) {
+        break;
+      }
+      if (elapsed < TARGET_SAMPLE_NANOS && operations < MAX_OPERATIONS_PER_SAMPLE) {
+        operations *= 2;
+      }
+    }
+
+    long[] nanosPerOperation = new long[SAMPLE_COUNT];
+    for (int i = 0; i < SAMPLE_COUNT; i++) {
+      nanosPerOperation[i] = sample(benchmark, operations) / operations;
+    }
+    Arrays.sort(nanosPerOperation);
+    return new Result(benchmark.getName(), operations, nanosPerOperation);
+  }
+
+  private static long sample(Benchmark benchmark, int operations) {
+    benchmark.setUp();
+    long start = System.nanoTime();
+    for (int i = 0; i < operations; i++) {
+      benchmark.run(i);
+    }
+    long elapsed = System.nanoTime() - start;
+    benchmark.tearDown();
+    return elapsed;
+  }
+
+  static final class Result {
+    final String mName;
+    final int mOperationsPerSample;
+    final long mMinNanos;
+    final long mMedianNanos;
+    final long mMaxNanos;
+
+    Result(String name, int operationsPerSample, long[] sortedNanos) {
+      mName = name;
+      mOperationsPerSample = operationsPerSample;
+      mMinNanos = sortedNanos[0];
+      mMedianNanos = sortedNanos[sortedNanos.length / 2];
+      mMaxNanos = sortedNanos[sortedNanos.length - 1];
+    }
+
+    @Override
+    public String toString() {
+      return mName + ": median " + format(mMedianNanos) + ", min " + format(mMinNanos)
+          + ", max " + format(mMaxNanos) + " (" + mOperationsPerSample + " ops/sample)";
+    }
+
+    private static String format(long nanos) {
+      if (nanos >= 1000 * 1000) {
+        return String.format(Locale.US, "%.2f ms", nanos / 1e6);
+      } else if (nanos >= 1000) {
+        return String.format(Locale.US, "%.2f us", nanos / 1e3);
+      }
+      return nanos + " ns";
+    }
+  }
+}
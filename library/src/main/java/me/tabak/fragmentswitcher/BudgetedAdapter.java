@@ -0,0 +1,54 @@
+/*
+ * Copyright 2014 Jacob Tabak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tabak.fragmentswitcher;
+
+
+/**
+ * Implemented by the library's adapters so that a {@link MemoryBudget} can account for, and
+ * release, the fragments and saved states they hold for pages that aren't shown.  Uses are
+ * ordered with {@link UseClock}.
+ */
+interface BudgetedAdapter {
+  /**
+   * @return The number of fragments kept for pages that aren't shown
+   */
+  int getRetainedFragmentCount();
+
+  /**
+   * @return When the least recently used retained fragment was last used, or
+   * {@link Long#MAX_VALUE} if there is none
+   */
+  long getOldestRetainedFragmentUse();
+
+  void releaseOldestRetainedFragment();
+
+  /**
+   * @return The marshalled size of the saved states held in memory
+   */
+  long getStateBytes();
+
+  /**
+   * @return When the least recently used saved state counted by {@link #getStateBytes()} was
+   * last used, or {@link Long#MAX_VALUE} if there is none
+   */
+  long getOldestStateUse();
+
+  /**
+   * Releases the saved state reported by {@link #getOldestStateUse()}.
+   */
+  void releaseOldestState();
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2014 Jacob Tabak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tabak.fragmentswitcher;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+
+/**
+ * A list stored as a sequence of small chunks, so that inserting, removing or moving an item
+ * anywhere only shifts the items of one chunk instead of the whole array.  Positions are
+ * found with a binary search over the chunk offsets, which are recomputed lazily after a
+ * change, once per batch of changes.
+ *
+ * The list also maps each item to its chunk by identity, so {@link #indexOfIdentity(Object)}
+ * only scans one chunk.  Items can only be added once, adding an item that is already in the
+ * list throws an IllegalArgumentException.
+ */
+final class ChunkedList<E> extends AbstractList<E> {
+  private static final int MAX_CHUNK_SIZE = 256;
+  private static final int MIN_CHUNK_SIZE = MAX_CHUNK_SIZE / 4;
+
+  private final ArrayList<Chunk> mChunks = new ArrayList<Chunk>();
+  private final IdentityHashMap<Object, Chunk> mChunkOf = new IdentityHashMap<Object, Chunk>();
+  private int mSize;
+  /** Number of leading chunks whose offset and index are up to date. */
+  private int mValidChunks;
+
+  @Override
+  public int size() {
+    return mSize;
+  }
+
+  @Override
+  public E get(int location) {
+    checkIndex(location, mSize);
+    Chunk chunk = mChunks.get(chunkIndexOf(location));
+    return elementAt(chunk, location - chunk.offset);
+  }
+
+  @Override
+  public E set(int location, E object) {
+    checkIndex(location, mSize);
+    Chunk chunk = mChunks.get(chunkIndexOf(location));
+    E previous = elementAt(chunk, location - chunk.offset);
+    if (previous != object) {
+      checkNotAdded(object);
+    }
+    chunk.items.set(location - chunk.offset, object);
+    mChunkOf.remove(previous);
+    mChunkOf.put(object, chunk);
+    return previous;
+  }
+
+  @Override
+  public void add(int location, E object) {
+    checkIndex(location, mSize + 1);
+    checkNotAdded(object);
+    if (mChunks.isEmpty()) {
+      mChunks.add(new Chunk());
+    }
+    // Appending is the common case, and needs no search.
+    final int chunkIndex = location == mSize ? mChunks.size() - 1 : chunkIndexOf(location);
+    Chunk chunk = mChunks.get(chunkIndex);
+    chunk.items.add(location - offsetOf(chunkIndex), object);
+    mChunkOf.put(object, chunk);
+    mSize++;
+    modCount++;
+    invalidateAfter(chunkIndex);
+    if (chunk.items.size() > MAX_CHUNK_SIZE) {
+      split(chunkIndex);
+    }
+  }
+
+  @Override
+  public E remove(int location) {
+    checkIndex(location, mSize);
+    final int chunkIndex = chunkIndexOf(location);
+    Chunk chunk = mChunks.get(chunkIndex);
+    @SuppressWarnings("unchecked")
+    E removed = (E) chunk.items.remove(location - chunk.offset);
+    mChunkOf.remove(removed);
+    mSize--;
+    modCount++;
+    invalidateAfter(chunkIndex);
+    if (chunk.items.isEmpty()) {
+      mChunks.remove(chunkIndex);
+      mValidChunks = Math.min(mValidChunks, chunkIndex);
+    } else if (chunk.items.size() < MIN_CHUNK_SIZE && chunkIndex + 1 < mChunks.size()) {
+      mergeWithNext(chunkIndex);
+    }
+    return removed;
+  }
+
+  @Override
+  public void clear() {
+    mChunks.clear();
+    mChunkOf.clear();
+    mSize = 0;
+    mValidChunks = 0;
+    modCount++;
+  }
+
+  /**
+   * Moves the item at one position to another, shifting the items in between.
+   */
+  void move(int fromLocation, int toLocation) {
+    checkIndex(fromLocation, mSize);
+    checkIndex(toLocation, mSize);
+    if (fromLocation != toLocation) {
+      add(toLocation, remove(fromLocation));
+    }
+  }
+
+  /**
+   * @return The position of the item, compared by identity, or -1 if it isn't in the list
+   */
+  int indexOfIdentity(Object object) {
+    Chunk chunk = mChunkOf.get(object);
+    if (chunk == null) {
+      return -1;
+    }
+    updateOffsets();
+    final List<Object> items = chunk.items;
+    final int count = items.size();
+    for (int i = 0; i < count; i++) {
+      if (items.get(i) == object) {
+        return chunk.offset + i;
+      }
+    }
+    return -1;
+  }
+
+  @SuppressWarnings("unchecked")
+  private E elementAt(Chunk chunk, int index) {
+    return (E) chunk.items.get(index);
+  }
+
+  private int offsetOf(int chunkIndex) {
+    updateOffsets();
+    return mChunks.get(chunkIndex).offset;
+  }
+
+  /**
+   * @return The index of the chunk that holds the specified position
+   */
+  private int chunkIndexOf(int location) {
+    updateOffsets();
+    int low = 0;
+    int high = mChunks.size() - 1;
+    while (low < high) {
+      final int mid = (low + high + 1) >>> 1;
+      if (mChunks.get(mid).offset <= location) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  private void updateOffsets() {
+    final int count = mChunks.size();
+    for (int i = mValidChunks; i < count; i++) {
+      Chunk chunk = mChunks.get(i);
+      if (i == 0) {
+        chunk.offset = 0;
+      } else {
+        Chunk previous = mChunks.get(i - 1);
+        chunk.offset = previous.offset + previous.items.size();
+      }
+    }
+    mValidChunks = count;
+  }
+
+  /**
+   * Records that the size of a chunk changed, which moves every chunk after it.
+   */
+  private void invalidateAfter(int chunkIndex) {
+    mValidChunks = Math.min(mValidChunks, chunkIndex + 1);
+  }
+
+  private void split(int chunkIndex) {
+    Chunk chunk = mChunks.get(chunkIndex);
+    List<Object> tail = chunk.items.subList(chunk.items.size() / 2, chunk.items.size());
+    Chunk next = new Chunk();
+    next.items.addAll(tail);
+    tail.clear();
+    for (Object item : next.items) {
+      mChunkOf.put(item, next);
+    }
+    mChunks.add(chunkIndex + 1, next);
+    invalidateAfter(chunkIndex);
+  }
+
+  private void mergeWithNext(int chunkIndex) {
+    Chunk chunk = mChunks.get(chunkIndex);
+    Chunk next = mChunks.get(chunkIndex + 1);
+    if (chunk.items.size() + next.items.size() > MAX_CHUNK_SIZE) {
+      return;
+    }
+    for (Object item : next.items) {
+      mChunkOf.put(item, chunk);
+    }
+    chunk.items.addAll(next.items);
+    mChunks.remove(chunkIndex + 1);
+    invalidateAfter(chunkIndex);
+  }
+
+  private void checkIndex(int location, int limit) {
+    if (location < 0 || location >= limit) {
+      throw new IndexOutOfBoundsException("Invalid index " + location + ", size is " + mSize);
+    }
+  }
+
+  private void checkNotAdded(Object object) {
+    if (mChunkOf.containsKey(object)) {
+      throw new IllegalArgumentException(object + " was already added");
+    }
+  }
+
+  private static final class Chunk {
+    final ArrayList<Object> items = new ArrayList<Object>(MAX_CHUNK_SIZE + 1);
+    /** Position of the first item, valid while the chunk is one of the valid chunks. */
+    int offset;
+  }
+}
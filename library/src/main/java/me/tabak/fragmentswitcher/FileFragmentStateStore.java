@@ -0,0 +1,344 @@
+/*
+ * Copyright 2014 Jacob Tabak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tabak.fragmentswitcher;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.support.v4.app.Fragment;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+
+/**
+ * A {@link me.tabak.fragmentswitcher.FragmentStateStore} that keeps one file per state in
+ * a directory, and deletes the least recently used states once their total size goes over
+ * a limit.
+ *
+ * States are written on a background thread; reads of a state that is still being written
+ * are served from memory.  The least recently used order is kept in memory and rebuilt from
+ * the files' modification times on the same background thread when the store is created.
+ *
+ * Marshalled states can only be read back by the same build of the app on the same build of
+ * the platform, so states are kept in a subdirectory named after the app's version code and
+ * the build fingerprint, and the states of other builds are deleted.
+ */
+public class FileFragmentStateStore implements FragmentStateStore {
+  private static final String TAG = "FileFragmentStateStore";
+  private static final String SUFFIX = ".state";
+
+  private static ExecutorService sWriteExecutor;
+
+  private final File mDirectory;
+  private final File mStateDirectory;
+  private final long mMaxBytes;
+  /** File sizes in least recently used order. */
+  private final LinkedHashMap<Long, Long> mSizes = new LinkedHashMap<Long, Long>(16, 0.75f, true);
+  /** States that are waiting to be written. */
+  private final Map<Long, byte[]> mPendingWrites = new HashMap<Long, byte[]>();
+  private long mTotalBytes;
+  private boolean mIndexed;
+  /** Keys removed before the files were indexed, which the index must leave out. */
+  private final Set<Long> mRemovedBeforeIndex = new HashSet<Long>();
+  private boolean mClearedBeforeIndex;
+
+  /**
+   * @param context Context of the app whose build the states belong to
+   * @param directory A directory private to the app, used only by this store
+   * @param maxBytes Largest total size of the stored states
+   */
+  public FileFragmentStateStore(Context context, File directory, long maxBytes) {
+    mDirectory = directory;
+    mStateDirectory = new File(directory, getBuildName(context));
+    mMaxBytes = maxBytes;
+    getWriteExecutor().execute(new Runnable() {
+      @Override
+      public void run() {
+        index();
+      }
+    });
+  }
+
+  @Override
+  public Fragment.SavedState get(long key, ClassLoader loader) {
+    byte[] bytes;
+    File file = getFile(key);
+    synchronized (this) {
+      bytes = mPendingWrites.get(key);
+      if (bytes == null) {
+        if (mIndexed ? mSizes.get(key) == null
+                     : mClearedBeforeIndex || mRemovedBeforeIndex.contains(key)) {
+          return null;
+        }
+      }
+    }
+    if (bytes == null && !file.isFile()) {
+      // The files have not been indexed yet, and this one doesn't exist.
+      return null;
+    }
+    try {
+      if (bytes == null) {
+        bytes = SavedStates.read(file);
+        file.setLastModified(System.currentTimeMillis());
+      }
+      return SavedStates.unmarshall(bytes, loader);
+    } catch (IOException e) {
+      Log.w(TAG, "Unable to read state " + key, e);
+    } catch (RuntimeException e) {
+      Log.w(TAG, "Unable to unmarshall state " + key, e);
+    }
+    remove(key);
+    return null;
+  }
+
+  /**
+   * Stores the state for the key.  A state that holds binders or file descriptors can't be
+   * written to a file, so the key is removed instead.
+   */
+  @Override
+  public void put(long key, Fragment.SavedState state) {
+    final byte[] bytes;
+    try {
+      bytes = SavedStates.marshall(state);
+    } catch (RuntimeException e) {
+      Log.w(TAG, "Unable to marshall state " + key, e);
+      remove(key);
+      return;
+    }
+    put(key, bytes);
+  }
+
+  /**
+   * Stores a state that was already marshalled, to spare marshalling it again.
+   */
+  void put(final long key, final byte[] bytes) {
+    synchronized (this) {
+      Long oldSize = mSizes.put(key, (long) bytes.length);
+      mTotalBytes += bytes.length - (oldSize != null ? oldSize : 0);
+      mPendingWrites.put(key, bytes);
+      mRemovedBeforeIndex.remove(key);
+      trimToSize();
+    }
+    getWriteExecutor().execute(new Runnable() {
+      @Override
+      public void run() {
+        write(key, bytes);
+      }
+    });
+  }
+
+  @Override
+  public synchronized void remove(long key) {
+    Long size = mSizes.remove(key);
+    if (size != null) {
+      mTotalBytes -= size;
+      mPendingWrites.remove(key);
+    }
+    if (!mIndexed) {
+      mRemovedBeforeIndex.add(key);
+    }
+    if (size != null || !mIndexed) {
+      deleteInBackground(key);
+    }
+  }
+
+  /**
+   * Removes every stored state.
+   */
+  public synchronized void clear() {
+    for (Long key : mSizes.keySet()) {
+      deleteInBackground(key);
+    }
+    mSizes.clear();
+    mPendingWrites.clear();
+    mTotalBytes = 0;
+    if (!mIndexed) {
+      mClearedBeforeIndex = true;
+      mRemovedBeforeIndex.clear();
+    }
+  }
+
+  private void write(long key, byte[] bytes) {
+    synchronized (this) {
+      // Skip writes that were replaced or removed in the meantime.
+      if (mPendingWrites.get(key) != bytes) {
+        return;
+      }
+    }
+    try {
+      SavedStates.write(getFile(key), bytes);
+    } catch (IOException e) {
+      Log.w(TAG, "Unable to write state " + key, e);
+    }
+    synchronized (this) {
+      if (mPendingWrites.get(key) == bytes) {
+        mPendingWrites.remove(key);
+      }
+    }
+  }
+
+  private void deleteInBackground(final long key) {
+    getWriteExecutor().execute(new Runnable() {
+      @Override
+      public void run() {
+        synchronized (FileFragmentStateStore.this) {
+          // The key may have been stored again since it was removed.
+          if (mSizes.containsKey(key)) {
+            return;
+          }
+        }
+        getFile(key).delete();
+      }
+    });
+  }
+
+  private void trimToSize() {
+    Iterator<Map.Entry<Long, Long>> iterator = mSizes.entrySet().iterator();
+    while (mTotalBytes > mMaxBytes && iterator.hasNext()) {
+      Map.Entry<Long, Long> eldest = iterator.next();
+      iterator.remove();
+      mTotalBytes -= eldest.getValue();
+      mPendingWrites.remove(eldest.getKey());
+      deleteInBackground(eldest.getKey());
+    }
+  }
+
+  /**
+   * Deletes the states of other builds and rebuilds the least recently used order from the
+   * files.  Runs on the write thread before any write or delete.  States put since the store
+   * was created are more recent than every file, and keys removed since then are left out.
+   */
+  private void index() {
+    deleteOtherBuilds();
+    File[] files = null;
+    if (mStateDirectory.isDirectory() || mStateDirectory.mkdirs()) {
+      files = mStateDirectory.listFiles();
+    } else {
+      Log.w(TAG, "Unable to create " + mStateDirectory);
+    }
+    if (files == null) {
+      files = new File[0];
+    }
+    Arrays.sort(files, new Comparator<File>() {
+      @Override
+      public int compare(File lhs, File rhs) {
+        long l = lhs.lastModified();
+        long r = rhs.lastModified();
+        return l < r ? -1 : (l == r ? 0 : 1);
+      }
+    });
+    List<File> stale = new ArrayList<File>();
+    synchronized (this) {
+      LinkedHashMap<Long, Long> recent = new LinkedHashMap<Long, Long>(mSizes);
+      mSizes.clear();
+      for (File file : files) {
+        String name = file.getName();
+        if (!name.endsWith(SUFFIX)) {
+          continue;
+        }
+        try {
+          long key = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+          if (mClearedBeforeIndex) {
+            stale.add(file);
+          } else if (!recent.containsKey(key) && !mRemovedBeforeIndex.contains(key)) {
+            mSizes.put(key, file.length());
+            mTotalBytes += file.length();
+          }
+        } catch (NumberFormatException e) {
+          Log.w(TAG, "Ignoring unexpected file " + file);
+        }
+      }
+      mSizes.putAll(recent);
+      mIndexed = true;
+      mClearedBeforeIndex = false;
+      mRemovedBeforeIndex.clear();
+      trimToSize();
+    }
+    for (File file : stale) {
+      file.delete();
+    }
+  }
+
+  /**
+   * Deletes everything in the directory that doesn't belong to the current build.
+   */
+  private void deleteOtherBuilds() {
+    File[] files = mDirectory.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      if (file.equals(mStateDirectory)) {
+        continue;
+      }
+      File[] children = file.listFiles();
+      if (children != null) {
+        for (File child : children) {
+          child.delete();
+        }
+      }
+      file.delete();
+    }
+  }
+
+  private File getFile(long key) {
+    return new File(mStateDirectory, key + SUFFIX);
+  }
+
+  /**
+   * @return A directory name that changes whenever the app or the platform is updated
+   */
+  private static String getBuildName(Context context) {
+    int versionCode = 0;
+    try {
+      versionCode = context.getPackageManager().getPackageInfo(context.getPackageName(), 0)
+          .versionCode;
+    } catch (PackageManager.NameNotFoundException e) {
+      Log.w(TAG, "Unable to find the version of " + context.getPackageName(), e);
+    }
+    return versionCode + "-" + Integer.toHexString(Build.FINGERPRINT.hashCode());
+  }
+
+  private static synchronized ExecutorService getWriteExecutor() {
+    if (sWriteExecutor == null) {
+      sWriteExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, TAG);
+          thread.setPriority(Thread.MIN_PRIORITY);
+          return thread;
+        }
+      });
+    }
+    return sWriteExecutor;
+  }
+}
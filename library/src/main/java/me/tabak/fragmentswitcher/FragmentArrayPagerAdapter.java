@@ -16,30 +16,80 @@
 
 package me.tabak.fragmentswitcher;
 
+import android.os.Bundle;
+import android.os.Parcelable;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentManager;
 import android.support.v4.app.FragmentPagerAdapter;
+import android.support.v4.app.FragmentTransaction;
+import android.view.ViewGroup;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 
 /**
  * A {@link android.support.v4.app.FragmentPagerAdapter} that does not need to
  * be subclassed and can be filled like an array.
+ *
+ * Each fragment gets a stable item id when it is added, and its position is tracked by
+ * identity, so {@link me.tabak.fragmentswitcher.FragmentSwitcher} follows the current
+ * fragment when fragments are inserted before it.  A fragment can only be added once, adding
+ * it again throws an IllegalArgumentException.
+ * Item ids are saved with the switcher's state and given back, by position, to the
+ * fragments added after the activity is recreated, so the array must be filled again in the
+ * order it had when it was saved.
+ *
+ * The array is stored in chunks, so inserting, removing and moving fragments stays cheap
+ * with tens of thousands of them.  Fragments of removed items are removed from the
+ * FragmentManager instead of staying detached in it.
+ *
+ * When memory runs low, {@link #trimFragments(int, boolean)} removes detached fragments and
+ * keeps only their saved state, in memory, until they are shown again.  A
+ * {@link me.tabak.fragmentswitcher.MemoryBudget} removes the least recently shown ones first.
  */
 @SuppressWarnings("UnusedDeclaration")
-public class FragmentArrayPagerAdapter<T extends Fragment> extends FragmentPagerAdapter {
-  private List<T> mItems = new ArrayList<T>();
+public class FragmentArrayPagerAdapter<T extends Fragment> extends FragmentPagerAdapter
+    implements TrimmableAdapter, BudgetedAdapter {
+  private static final String KEY_ITEM_IDS = "item_ids";
+  private static final String KEY_NEXT_ITEM_ID = "next_item_id";
+  private static final String KEY_TRIMMED_IDS = "trimmed_ids";
+  private static final String KEY_TRIMMED_STATES = "trimmed_states";
+
+  private final FragmentManager mFragmentManager;
+  private final ChunkedList<T> mItems = new ChunkedList<T>();
+  private final IdentityHashMap<T, Long> mItemIds = new IdentityHashMap<T, Long>();
+  private final IdentityHashMap<Object, T> mInstantiated = new IdentityHashMap<Object, T>();
+  private final HashMap<Long, Fragment> mFragmentsById = new HashMap<Long, Fragment>();
+  private final List<Fragment> mRemovedFragments = new ArrayList<Fragment>();
+  private final HashMap<Long, Fragment.SavedState> mTrimmedStates
+      = new HashMap<Long, Fragment.SavedState>();
+  private final HashMap<Long, Long> mDetachedUses = new HashMap<Long, Long>();
+  private long mNextItemId;
+  /** Restored item ids of the positions that have not been added again yet. */
+  private long[] mRestoredItemIds;
+  private int mBatchDepth;
+  private boolean mBatchChanged;
 
   public FragmentArrayPagerAdapter(FragmentManager fm) {
     super(fm);
+    mFragmentManager = fm;
   }
 
   @Override
   public T getItem(int i) {
-    return mItems.get(i);
+    T item = mItems.get(i);
+    if (!mTrimmedStates.isEmpty()) {
+      Fragment.SavedState state = mTrimmedStates.remove(mItemIds.get(item));
+      if (state != null) {
+        item.setInitialSavedState(state);
+      }
+    }
+    return item;
   }
 
   @Override
@@ -47,12 +97,248 @@ public class FragmentArrayPagerAdapter<T extends Fragment> extends FragmentPager
     return mItems.size();
   }
 
+  @Override
+  public long getItemId(int position) {
+    return mItemIds.get(mItems.get(position));
+  }
+
+  @Override
+  public int getItemPosition(Object object) {
+    // A fragment restored by the FragmentManager stands in for the item it was created for.
+    T item = mInstantiated.get(object);
+    final int position = mItems.indexOfIdentity(item != null ? item : object);
+    return position >= 0 ? position : POSITION_NONE;
+  }
+
+  @Override
+  public Object instantiateItem(ViewGroup container, int position) {
+    Object fragment = super.instantiateItem(container, position);
+    mInstantiated.put(fragment, mItems.get(position));
+    final long itemId = getItemId(position);
+    mFragmentsById.put(itemId, (Fragment) fragment);
+    mDetachedUses.remove(itemId);
+    return fragment;
+  }
+
+  @Override
+  public void destroyItem(ViewGroup container, int position, Object object) {
+    T item = mInstantiated.remove(object);
+    Long itemId = item != null ? mItemIds.get(item) : null;
+    if (itemId != null) {
+      mDetachedUses.put(itemId, UseClock.tick());
+    }
+    super.destroyItem(container, position, object);
+  }
+
+  @Override
+  public void finishUpdate(ViewGroup container) {
+    super.finishUpdate(container);
+    if (!mRemovedFragments.isEmpty()) {
+      removeDetachedFragments();
+    }
+  }
+
+  @Override
+  public Parcelable saveState() {
+    Bundle state = new Bundle();
+    long[] itemIds = new long[mItems.size()];
+    int i = 0;
+    for (T item : mItems) {
+      itemIds[i++] = mItemIds.get(item);
+    }
+    state.putLongArray(KEY_ITEM_IDS, itemIds);
+    state.putLong(KEY_NEXT_ITEM_ID, mNextItemId);
+    if (!mTrimmedStates.isEmpty()) {
+      long[] trimmedIds = new long[mTrimmedStates.size()];
+      Fragment.SavedState[] trimmedStates = new Fragment.SavedState[trimmedIds.length];
+      i = 0;
+      for (Map.Entry<Long, Fragment.SavedState> entry : mTrimmedStates.entrySet()) {
+        trimmedIds[i] = entry.getKey();
+        trimmedStates[i++] = entry.getValue();
+      }
+      state.putLongArray(KEY_TRIMMED_IDS, trimmedIds);
+      state.putParcelableArray(KEY_TRIMMED_STATES, trimmedStates);
+    }
+    return state;
+  }
+
+  /**
+   * Gives the restored item ids back to the fragments in the array, by position.  The
+   * FragmentManager restores fragments under tags built from those ids, so reusing them
+   * matches each position with the fragment that was shown for it.  Fragments added later
+   * get the remaining ids, until the array is changed in any other way.  The saved states of
+   * trimmed fragments are restored with their ids.
+   */
+  @Override
+  public void restoreState(Parcelable state, ClassLoader loader) {
+    if (state == null) {
+      return;
+    }
+    Bundle bundle = (Bundle) state;
+    bundle.setClassLoader(loader);
+    long[] itemIds = bundle.getLongArray(KEY_ITEM_IDS);
+    if (itemIds == null) {
+      return;
+    }
+    mNextItemId = Math.max(mNextItemId, bundle.getLong(KEY_NEXT_ITEM_ID));
+    final int count = mItems.size();
+    for (int i = 0; i < count; i++) {
+      mItemIds.put(mItems.get(i), i < itemIds.length ? itemIds[i] : mNextItemId++);
+    }
+    mRestoredItemIds = itemIds.length > count ? itemIds : null;
+    long[] trimmedIds = bundle.getLongArray(KEY_TRIMMED_IDS);
+    Parcelable[] trimmedStates = bundle.getParcelableArray(KEY_TRIMMED_STATES);
+    if (trimmedIds != null && trimmedStates != null) {
+      for (int i = 0; i < trimmedIds.length; i++) {
+        mTrimmedStates.put(trimmedIds[i], (Fragment.SavedState) trimmedStates[i]);
+      }
+    }
+  }
+
+  @Override
+  public void trimFragments(int currentPosition, boolean all) {
+    int count = 0;
+    int[] positions = new int[mFragmentsById.size()];
+    for (Map.Entry<T, Long> entry : mItemIds.entrySet()) {
+      Fragment fragment = mFragmentsById.get(entry.getValue());
+      if (fragment != null && fragment.isDetached()) {
+        positions[count++] = mItems.indexOfIdentity(entry.getKey());
+      }
+    }
+    final int trimCount = TrimOrder.countToTrim(count, all);
+    if (trimCount == 0) {
+      return;
+    }
+    TrimOrder.sortFarthestFirst(positions, count, currentPosition);
+    FragmentTransaction transaction = mFragmentManager.beginTransaction();
+    for (int i = 0; i < trimCount; i++) {
+      removeRetainedFragment(getItemId(positions[i]), transaction);
+    }
+    transaction.commitAllowingStateLoss();
+    mFragmentManager.executePendingTransactions();
+  }
+
+  /**
+   * Removes the detached fragment of the specified item, keeping its saved state in memory.
+   */
+  private void removeRetainedFragment(long itemId, FragmentTransaction transaction) {
+    Fragment fragment = mFragmentsById.remove(itemId);
+    mDetachedUses.remove(itemId);
+    Fragment.SavedState state = mFragmentManager.saveFragmentInstanceState(fragment);
+    if (state != null) {
+      mTrimmedStates.put(itemId, state);
+    }
+    transaction.remove(fragment);
+  }
+
+  @Override
+  public void trimSavedStates(int currentPosition, boolean all) {
+    int count = 0;
+    int[] positions = new int[mTrimmedStates.size()];
+    for (Map.Entry<T, Long> entry : mItemIds.entrySet()) {
+      if (mTrimmedStates.containsKey(entry.getValue())) {
+        positions[count++] = mItems.indexOfIdentity(entry.getKey());
+      }
+    }
+    TrimOrder.sortFarthestFirst(positions, count, currentPosition);
+    final int trimCount = TrimOrder.countToTrim(count, all);
+    for (int i = 0; i < trimCount; i++) {
+      mTrimmedStates.remove(getItemId(positions[i]));
+    }
+  }
+
+  @Override
+  public int getRetainedFragmentCount() {
+    return mDetachedUses.size();
+  }
+
+  @Override
+  public long getOldestRetainedFragmentUse() {
+    long oldest = Long.MAX_VALUE;
+    for (Long lastUsed : mDetachedUses.values()) {
+      oldest = Math.min(oldest, lastUsed);
+    }
+    return oldest;
+  }
+
+  @Override
+  public void releaseOldestRetainedFragment() {
+    Long oldestId = null;
+    long oldest = Long.MAX_VALUE;
+    for (Map.Entry<Long, Long> entry : mDetachedUses.entrySet()) {
+      if (entry.getValue() < oldest) {
+        oldest = entry.getValue();
+        oldestId = entry.getKey();
+      }
+    }
+    if (oldestId == null) {
+      return;
+    }
+    if (!mFragmentsById.containsKey(oldestId)) {
+      mDetachedUses.remove(oldestId);
+      return;
+    }
+    FragmentTransaction transaction = mFragmentManager.beginTransaction();
+    removeRetainedFragment(oldestId, transaction);
+    transaction.commitAllowingStateLoss();
+    mFragmentManager.executePendingTransactions();
+  }
+
+  /**
+   * Saved states of removed fragments are small next to the fragments themselves, so they
+   * aren't counted against a budget.
+   */
+  @Override
+  public long getStateBytes() {
+    return 0;
+  }
+
+  @Override
+  public long getOldestStateUse() {
+    return Long.MAX_VALUE;
+  }
+
+  @Override
+  public void releaseOldestState() {
+  }
+
+  /**
+   * Starts a batch of changes.  Until the matching {@link #endBatch()}, changes to the
+   * array do not notify observers, and endBatch notifies them once if anything changed.
+   * Batches may be nested, and must be ended before returning to the main looper.
+   */
+  public void beginBatch() {
+    mBatchDepth++;
+  }
+
+  /**
+   * Ends a batch of changes started with {@link #beginBatch()}.
+   */
+  public void endBatch() {
+    if (mBatchDepth == 0) {
+      throw new IllegalStateException("endBatch() called without beginBatch()");
+    }
+    if (--mBatchDepth == 0 && mBatchChanged) {
+      mBatchChanged = false;
+      super.notifyDataSetChanged();
+    }
+  }
+
+  @Override
+  public void notifyDataSetChanged() {
+    if (mBatchDepth > 0) {
+      mBatchChanged = true;
+    } else {
+      super.notifyDataSetChanged();
+    }
+  }
+
   /**
    * Adds the specified fragment at the end of the array.
    * @param fragment
    */
   public void add(T fragment) {
-    mItems.add(fragment);
+    append(fragment);
     notifyDataSetChanged();
   }
 
@@ -61,7 +347,9 @@ public class FragmentArrayPagerAdapter<T extends Fragment> extends FragmentPager
    * @param fragments
    */
   public void addAll(Collection<T> fragments) {
-    mItems.addAll(fragments);
+    for (T fragment : fragments) {
+      append(fragment);
+    }
     notifyDataSetChanged();
   }
 
@@ -71,7 +359,7 @@ public class FragmentArrayPagerAdapter<T extends Fragment> extends FragmentPager
    */
   public void addAll(T... fragments) {
     for (T fragment : fragments) {
-      mItems.add(fragment);
+      append(fragment);
     }
     notifyDataSetChanged();
   }
@@ -81,6 +369,12 @@ public class FragmentArrayPagerAdapter<T extends Fragment> extends FragmentPager
    */
   public void clear() {
     mItems.clear();
+    mItemIds.clear();
+    mRestoredItemIds = null;
+    mRemovedFragments.addAll(mFragmentsById.values());
+    mFragmentsById.clear();
+    mTrimmedStates.clear();
+    mDetachedUses.clear();
     notifyDataSetChanged();
   }
 
@@ -91,6 +385,110 @@ public class FragmentArrayPagerAdapter<T extends Fragment> extends FragmentPager
    */
   public void insert(T fragment, int index) {
     mItems.add(index, fragment);
+    mItemIds.put(fragment, mNextItemId++);
+    mRestoredItemIds = null;
+    notifyDataSetChanged();
+  }
+
+  /**
+   * Removes the fragment at the specified index in the array.
+   * @param index
+   * @return The removed fragment
+   */
+  public T remove(int index) {
+    T fragment = mItems.remove(index);
+    forget(fragment);
+    mRestoredItemIds = null;
     notifyDataSetChanged();
+    return fragment;
+  }
+
+  /**
+   * Removes the specified fragment from the array.
+   * @param fragment
+   * @return Whether the fragment was in the array
+   */
+  public boolean remove(T fragment) {
+    final int index = mItems.indexOfIdentity(fragment);
+    if (index < 0) {
+      return false;
+    }
+    remove(index);
+    return true;
+  }
+
+  /**
+   * Moves the fragment at one index in the array to another.  It keeps its item id.
+   * @param fromIndex
+   * @param toIndex
+   */
+  public void move(int fromIndex, int toIndex) {
+    mItems.move(fromIndex, toIndex);
+    mRestoredItemIds = null;
+    notifyDataSetChanged();
+  }
+
+  /**
+   * Replaces the fragment at the specified index in the array.
+   * @param index
+   * @param fragment
+   * @return The replaced fragment
+   */
+  public T set(int index, T fragment) {
+    T previous = mItems.set(index, fragment);
+    forget(previous);
+    mItemIds.put(fragment, mNextItemId++);
+    mRestoredItemIds = null;
+    notifyDataSetChanged();
+    return previous;
+  }
+
+  private void append(T fragment) {
+    final int position = mItems.size();
+    mItems.add(fragment);
+    if (mRestoredItemIds != null && position < mRestoredItemIds.length) {
+      mItemIds.put(fragment, mRestoredItemIds[position]);
+    } else {
+      mItemIds.put(fragment, mNextItemId++);
+      mRestoredItemIds = null;
+    }
+  }
+
+  /**
+   * Drops the id of an item that is no longer in the array, and queues the fragment that was
+   * instantiated for it to be removed from the FragmentManager.
+   */
+  private void forget(T item) {
+    Long itemId = mItemIds.remove(item);
+    if (itemId != null) {
+      mTrimmedStates.remove(itemId);
+      mDetachedUses.remove(itemId);
+      Fragment fragment = mFragmentsById.remove(itemId);
+      if (fragment != null) {
+        mRemovedFragments.add(fragment);
+      }
+    }
+  }
+
+  /**
+   * Removes the queued fragments that have been detached.  A fragment that is still shown is
+   * removed after the FragmentSwitcher destroys it.
+   */
+  private void removeDetachedFragments() {
+    FragmentTransaction transaction = null;
+    for (int i = mRemovedFragments.size() - 1; i >= 0; i--) {
+      Fragment fragment = mRemovedFragments.get(i);
+      if (fragment.isDetached()) {
+        if (transaction == null) {
+          transaction = mFragmentManager.beginTransaction();
+        }
+        transaction.remove(fragment);
+        mRemovedFragments.remove(i);
+      }
+    }
+    if (transaction != null) {
+      transaction.commitAllowingStateLoss();
+      mFragmentManager.executePendingTransactions();
+    }
   }
 }
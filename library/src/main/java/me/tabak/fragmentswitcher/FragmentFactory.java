@@ -0,0 +1,144 @@
+/*
+ * Copyright 2014 Jacob Tabak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tabak.fragmentswitcher;
+
+import android.os.Bundle;
+import android.support.v4.app.Fragment;
+
+
+/**
+ * A lightweight description of a fragment that is only instantiated when it is needed.
+ *
+ * Use {@link #forClass(Class, android.os.Bundle)} to describe a fragment by its class and
+ * arguments, or subclass and override {@link #newFragment()} to build it yourself.
+ *
+ * @see me.tabak.fragmentswitcher.FragmentStateFactoryPagerAdapter
+ */
+public abstract class FragmentFactory<T extends Fragment> {
+  /**
+   * Creates a new instance of the described fragment.  Called on the main thread
+   * every time the fragment's position is instantiated.
+   */
+  public abstract T newFragment();
+
+  /**
+   * Returns the layout resource of the described fragment, or 0 if unknown.  Used by
+   * {@link FragmentSwitcher#prefetch(int)} to inflate the fragment's view ahead of time.
+   */
+  public int getLayoutResource() {
+    return 0;
+  }
+
+  /**
+   * Returns an id that identifies the described fragment across process restarts, or
+   * {@link SparseFragmentStatePagerAdapter#NO_ID} if there is none.  The state of fragments
+   * with an id is kept in the adapter's {@link FragmentStateStore}, if it has one.
+   */
+  public long getItemId() {
+    return SparseFragmentStatePagerAdapter.NO_ID;
+  }
+
+  /**
+   * Describes a fragment by its class.  The class must have a public no-arg constructor.
+   * @param fragmentClass
+   */
+  public static <T extends Fragment> FragmentFactory<T> forClass(Class<T> fragmentClass) {
+    return forClass(fragmentClass, null);
+  }
+
+  /**
+   * Describes a fragment by its class and arguments.  The class must have a public no-arg
+   * constructor.  Each fragment created receives its own copy of the arguments.
+   * @param fragmentClass
+   * @param args
+   */
+  public static <T extends Fragment> FragmentFactory<T> forClass(Class<T> fragmentClass,
+                                                                 Bundle args) {
+    return forClass(fragmentClass, args, 0);
+  }
+
+  /**
+   * Describes a fragment by its class, arguments and the layout it inflates with
+   * {@link FragmentSwitcher#inflate(android.view.LayoutInflater, int, android.view.ViewGroup)}.
+   * @param fragmentClass
+   * @param args
+   * @param layoutResId
+   */
+  public static <T extends Fragment> FragmentFactory<T> forClass(Class<T> fragmentClass,
+                                                                 Bundle args, int layoutResId) {
+    return forClass(fragmentClass, args, layoutResId, SparseFragmentStatePagerAdapter.NO_ID);
+  }
+
+  /**
+   * Describes a fragment by its class, arguments, layout and an id that identifies it across
+   * process restarts, see {@link #getItemId()}.
+   * @param fragmentClass
+   * @param args
+   * @param layoutResId
+   * @param itemId
+   */
+  public static <T extends Fragment> FragmentFactory<T> forClass(Class<T> fragmentClass,
+                                                                 Bundle args, int layoutResId,
+                                                                 long itemId) {
+    return new ClassFactory<T>(fragmentClass, args, layoutResId, itemId);
+  }
+
+  private static class ClassFactory<T extends Fragment> extends FragmentFactory<T> {
+    private final Class<T> mFragmentClass;
+    private final Bundle mArgs;
+    private final int mLayoutResId;
+    private final long mItemId;
+
+    ClassFactory(Class<T> fragmentClass, Bundle args, int layoutResId, long itemId) {
+      mFragmentClass = fragmentClass;
+      mArgs = args;
+      mLayoutResId = layoutResId;
+      mItemId = itemId;
+    }
+
+    @Override
+    public int getLayoutResource() {
+      return mLayoutResId;
+    }
+
+    @Override
+    public long getItemId() {
+      return mItemId;
+    }
+
+    @Override
+    public T newFragment() {
+      try {
+        T fragment = mFragmentClass.newInstance();
+        if (mArgs != null) {
+          fragment.setArguments(new Bundle(mArgs));
+        }
+        return fragment;
+      } catch (InstantiationException e) {
+        throw new Fragment.InstantiationException("Unable to instantiate fragment "
+                                                  + mFragmentClass.getName()
+                                                  + ": make sure class name exists, is public,"
+                                                  + " and has an empty constructor that is public", e);
+      } catch (IllegalAccessException e) {
+        throw new Fragment.InstantiationException("Unable to instantiate fragment "
+                                                  + mFragmentClass.getName()
+                                                  + ": make sure class name exists, is public,"
+                                                  + " and has an empty constructor that is public", e);
+      }
+    }
+  }
+}
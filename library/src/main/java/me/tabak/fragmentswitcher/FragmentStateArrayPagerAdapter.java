@@ -18,20 +18,35 @@ package me.tabak.fragmentswitcher;
 
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentManager;
-import android.support.v4.app.FragmentStatePagerAdapter;
+import android.view.ViewGroup;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.List;
+import java.util.IdentityHashMap;
 
 
 /**
- * A {@link android.support.v4.app.FragmentStatePagerAdapter} that does not need to
+ * A {@link me.tabak.fragmentswitcher.SparseFragmentStatePagerAdapter} that does not need to
  * be subclassed and can be filled like an array.
+ *
+ * The position of each fragment is tracked by identity, so
+ * {@link me.tabak.fragmentswitcher.FragmentSwitcher} follows the current fragment when
+ * fragments are inserted before it.  A fragment can only be added once, adding it again throws
+ * an IllegalArgumentException.
+ *
+ * The array is stored in chunks, so inserting, removing and moving fragments stays cheap
+ * with tens of thousands of them.
+ *
+ * Earlier versions extended {@link android.support.v4.app.FragmentStatePagerAdapter}.  Their
+ * saved state is still restored, but this class is no longer one.
  */
 @SuppressWarnings("UnusedDeclaration")
-public class FragmentStateArrayPagerAdapter<T extends Fragment> extends FragmentStatePagerAdapter {
-  private List<T> mItems = new ArrayList<T>();
+public class FragmentStateArrayPagerAdapter<T extends Fragment>
+    extends SparseFragmentStatePagerAdapter {
+  private final ChunkedList<T> mItems = new ChunkedList<T>();
+  private final IdentityHashMap<Object, T> mInstantiated
+      = new IdentityHashMap<Object, T>();
+  private int mBatchDepth;
+  private boolean mBatchChanged;
 
   public FragmentStateArrayPagerAdapter(FragmentManager fm) {
     super(fm);
@@ -47,12 +62,64 @@ public class FragmentStateArrayPagerAdapter<T extends Fragment> extends Fragment
     return mItems.size();
   }
 
+  @Override
+  public int getItemPosition(Object object) {
+    // A fragment restored by the FragmentManager stands in for the item it was created for.
+    T item = mInstantiated.get(object);
+    final int position = mItems.indexOfIdentity(item != null ? item : object);
+    return position >= 0 ? position : POSITION_NONE;
+  }
+
+  @Override
+  public Object instantiateItem(ViewGroup container, int position) {
+    Object fragment = super.instantiateItem(container, position);
+    mInstantiated.put(fragment, mItems.get(position));
+    return fragment;
+  }
+
+  @Override
+  public void destroyItem(ViewGroup container, int position, Object object) {
+    mInstantiated.remove(object);
+    super.destroyItem(container, position, object);
+  }
+
+  /**
+   * Starts a batch of changes.  Until the matching {@link #endBatch()}, changes to the
+   * array do not notify observers, and endBatch notifies them once if anything changed.
+   * Batches may be nested, and must be ended before returning to the main looper.
+   */
+  public void beginBatch() {
+    mBatchDepth++;
+  }
+
+  /**
+   * Ends a batch of changes started with {@link #beginBatch()}.
+   */
+  public void endBatch() {
+    if (mBatchDepth == 0) {
+      throw new IllegalStateException("endBatch() called without beginBatch()");
+    }
+    if (--mBatchDepth == 0 && mBatchChanged) {
+      mBatchChanged = false;
+      super.notifyDataSetChanged();
+    }
+  }
+
+  @Override
+  public void notifyDataSetChanged() {
+    if (mBatchDepth > 0) {
+      mBatchChanged = true;
+    } else {
+      super.notifyDataSetChanged();
+    }
+  }
+
   /**
    * Adds the specified fragment at the end of the array.
    * @param fragment
    */
   public void add(T fragment) {
-    mItems.add(fragment);
+    append(fragment);
     notifyDataSetChanged();
   }
 
@@ -61,7 +128,9 @@ public class FragmentStateArrayPagerAdapter<T extends Fragment> extends Fragment
    * @param fragments
    */
   public void addAll(Collection<T> fragments) {
-    mItems.addAll(fragments);
+    for (T fragment : fragments) {
+      append(fragment);
+    }
     notifyDataSetChanged();
   }
 
@@ -71,7 +140,7 @@ public class FragmentStateArrayPagerAdapter<T extends Fragment> extends Fragment
    */
   public void addAll(T... fragments) {
     for (T fragment : fragments) {
-      mItems.add(fragment);
+      append(fragment);
     }
     notifyDataSetChanged();
   }
@@ -80,8 +149,9 @@ public class FragmentStateArrayPagerAdapter<T extends Fragment> extends Fragment
    * Remove all elements from the list.
    */
   public void clear() {
+    final int count = mItems.size();
     mItems.clear();
-    notifyDataSetChanged();
+    notifyItemRangeRemoved(0, count);
   }
 
   /**
@@ -91,6 +161,58 @@ public class FragmentStateArrayPagerAdapter<T extends Fragment> extends Fragment
    */
   public void insert(T fragment, int index) {
     mItems.add(index, fragment);
-    notifyDataSetChanged();
+    notifyItemRangeInserted(index, 1);
+  }
+
+  /**
+   * Removes the fragment at the specified index in the array.
+   * @param index
+   * @return The removed fragment
+   */
+  public T remove(int index) {
+    T fragment = mItems.remove(index);
+    notifyItemRangeRemoved(index, 1);
+    return fragment;
+  }
+
+  /**
+   * Removes the specified fragment from the array.
+   * @param fragment
+   * @return Whether the fragment was in the array
+   */
+  public boolean remove(T fragment) {
+    final int index = mItems.indexOfIdentity(fragment);
+    if (index < 0) {
+      return false;
+    }
+    remove(index);
+    return true;
+  }
+
+  /**
+   * Moves the fragment at one index in the array to another.  Its saved state moves with it.
+   * @param fromIndex
+   * @param toIndex
+   */
+  public void move(int fromIndex, int toIndex) {
+    mItems.move(fromIndex, toIndex);
+    notifyItemMoved(fromIndex, toIndex);
+  }
+
+  /**
+   * Replaces the fragment at the specified index in the array.  The saved state of the
+   * replaced fragment is dropped.
+   * @param index
+   * @param fragment
+   * @return The replaced fragment
+   */
+  public T set(int index, T fragment) {
+    T previous = mItems.set(index, fragment);
+    notifyItemRangeChanged(index, 1);
+    return previous;
+  }
+
+  private void append(T fragment) {
+    mItems.add(fragment);
   }
 }
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2014 Jacob Tabak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tabak.fragmentswitcher;
+
+import android.os.Bundle;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentManager;
+import android.view.ViewGroup;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+
+
+/**
+ * A {@link me.tabak.fragmentswitcher.SparseFragmentStatePagerAdapter} that can be filled like
+ * an array of {@link me.tabak.fragmentswitcher.FragmentFactory} descriptions instead of
+ * fragments.
+ *
+ * No fragment is created until its position is instantiated, and the fragment is discarded
+ * (keeping only its saved state) when its position is destroyed.  Use this instead of
+ * {@link me.tabak.fragmentswitcher.FragmentStateArrayPagerAdapter} when there are many
+ * destinations and only a few of them will be visited.
+ *
+ * Fragments are matched to the factory that created them, so
+ * {@link me.tabak.fragmentswitcher.FragmentSwitcher} follows the current fragment when
+ * factories are inserted before it.  A factory can only be added once, adding it again throws
+ * an IllegalArgumentException.  {@link FragmentFactory#forClass(Class, Bundle)} returns a new
+ * factory every time, so the same class and arguments can be added more than once.
+ *
+ * The array is stored in chunks, so inserting, removing and moving factories stays cheap
+ * with tens of thousands of them.
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class FragmentStateFactoryPagerAdapter<T extends Fragment>
+    extends SparseFragmentStatePagerAdapter implements FragmentSwitcher.LayoutProvider {
+  private final ChunkedList<FragmentFactory<? extends T>> mFactories
+      = new ChunkedList<FragmentFactory<? extends T>>();
+  private final IdentityHashMap<Object, FragmentFactory<? extends T>> mInstantiated
+      = new IdentityHashMap<Object, FragmentFactory<? extends T>>();
+  private int mBatchDepth;
+  private boolean mBatchChanged;
+
+  public FragmentStateFactoryPagerAdapter(FragmentManager fm) {
+    super(fm);
+  }
+
+  @Override
+  public T getItem(int i) {
+    return mFactories.get(i).newFragment();
+  }
+
+  /**
+   * Returns the id of the factory at the specified position, see
+   * {@link FragmentFactory#getItemId()}.
+   */
+  @Override
+  public long getItemId(int position) {
+    return mFactories.get(position).getItemId();
+  }
+
+  @Override
+  public int getCount() {
+    return mFactories.size();
+  }
+
+  @Override
+  public int getItemPosition(Object object) {
+    FragmentFactory<? extends T> factory = mInstantiated.get(object);
+    final int position = factory != null ? mFactories.indexOfIdentity(factory) : -1;
+    return position >= 0 ? position : POSITION_NONE;
+  }
+
+  @Override
+  public Object instantiateItem(ViewGroup container, int position) {
+    Object fragment = super.instantiateItem(container, position);
+    mInstantiated.put(fragment, mFactories.get(position));
+    return fragment;
+  }
+
+  @Override
+  public void destroyItem(ViewGroup container, int position, Object object) {
+    mInstantiated.remove(object);
+    super.destroyItem(container, position, object);
+  }
+
+  @Override
+  public int getLayoutResource(int position) {
+    return mFactories.get(position).getLayoutResource();
+  }
+
+  /**
+   * Starts a batch of changes.  Until the matching {@link #endBatch()}, changes to the
+   * array do not notify observers, and endBatch notifies them once if anything changed.
+   * Batches may be nested, and must be ended before returning to the main looper.
+   */
+  public void beginBatch() {
+    mBatchDepth++;
+  }
+
+  /**
+   * Ends a batch of changes started with {@link #beginBatch()}.
+   */
+  public void endBatch() {
+    if (mBatchDepth == 0) {
+      throw new IllegalStateException("endBatch() called without beginBatch()");
+    }
+    if (--mBatchDepth == 0 && mBatchChanged) {
+      mBatchChanged = false;
+      super.notifyDataSetChanged();
+    }
+  }
+
+  @Override
+  public void notifyDataSetChanged() {
+    if (mBatchDepth > 0) {
+      mBatchChanged = true;
+    } else {
+      super.notifyDataSetChanged();
+    }
+  }
+
+  /**
+   * Returns the factory at the specified index in the array.
+   * @param index
+   */
+  public FragmentFactory<? extends T> getFactory(int index) {
+    return mFactories.get(index);
+  }
+
+  /**
+   * Adds the specified factory at the end of the array.
+   * @param factory
+   */
+  public void add(FragmentFactory<? extends T> factory) {
+    append(factory);
+    notifyDataSetChanged();
+  }
+
+  /**
+   * Adds a factory for the specified fragment class and arguments at the end of the array.
+   * @param fragmentClass
+   * @param args
+   */
+  public void add(Class<? extends T> fragmentClass, Bundle args) {
+    add(newFactory(fragmentClass, args));
+  }
+
+  /**
+   * Adds the specified Collection of factories at the end of the array.
+   * @param factories
+   */
+  public void addAll(Collection<? extends FragmentFactory<? extends T>> factories) {
+    for (FragmentFactory<? extends T> factory : factories) {
+      append(factory);
+    }
+    notifyDataSetChanged();
+  }
+
+  /**
+   * Adds the specified factories at the end of the array.
+   * @param factories
+   */
+  public void addAll(FragmentFactory<? extends T>... factories) {
+    for (FragmentFactory<? extends T> factory : factories) {
+      append(factory);
+    }
+    notifyDataSetChanged();
+  }
+
+  /**
+   * Remove all elements from the list.  Unlike removing them one by one, their states in the
+   * store are kept.
+   */
+  public void clear() {
+    final int count = mFactories.size();
+    mFactories.clear();
+    notifyItemRangeRemoved(0, count);
+  }
+
+  /**
+   * Inserts the specified factory at the specified index in the array.
+   * @param factory
+   * @param index
+   */
+  public void insert(FragmentFactory<? extends T> factory, int index) {
+    mFactories.add(index, factory);
+    notifyItemRangeInserted(index, 1);
+  }
+
+  /**
+   * Removes the factory at the specified index in the array.
+   * @param index
+   * @return The removed factory
+   */
+  public FragmentFactory<? extends T> remove(int index) {
+    FragmentFactory<? extends T> factory = mFactories.remove(index);
+    removeStoredState(factory.getItemId());
+    notifyItemRangeRemoved(index, 1);
+    return factory;
+  }
+
+  /**
+   * Removes the specified factory from the array.
+   * @param factory
+   * @return Whether the factory was in the array
+   */
+  public boolean remove(FragmentFactory<? extends T> factory) {
+    final int index = mFactories.indexOfIdentity(factory);
+    if (index < 0) {
+      return false;
+    }
+    remove(index);
+    return true;
+  }
+
+  /**
+   * Moves the factory at one index in the array to another.  The saved state of its
+   * fragment moves with it.
+   * @param fromIndex
+   * @param toIndex
+   */
+  public void move(int fromIndex, int toIndex) {
+    mFactories.move(fromIndex, toIndex);
+    notifyItemMoved(fromIndex, toIndex);
+  }
+
+  /**
+   * Replaces the factory at the specified index in the array.  The saved state of the
+   * replaced factory's fragment is dropped.
+   * @param index
+   * @param factory
+   * @return The replaced factory
+   */
+  public FragmentFactory<? extends T> set(int index, FragmentFactory<? extends T> factory) {
+    FragmentFactory<? extends T> previous = mFactories.set(index, factory);
+    removeStoredState(previous.getItemId());
+    notifyItemRangeChanged(index, 1);
+    return previous;
+  }
+
+  private void append(FragmentFactory<? extends T> factory) {
+    mFactories.add(factory);
+  }
+
+  private static <F extends Fragment> FragmentFactory<F> newFactory(Class<F> fragmentClass,
+                                                                  Bundle args) {
+    return FragmentFactory.forClass(fragmentClass, args);
+  }
+}
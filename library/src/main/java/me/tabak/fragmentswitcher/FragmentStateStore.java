@@ -0,0 +1,49 @@
+/*
+ * Copyright 2014 Jacob Tabak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tabak.fragmentswitcher;
+
+import android.support.v4.app.Fragment;
+
+
+/**
+ * Stores the saved state of fragments outside of the activity's saved instance state, so
+ * that it survives process death and cold starts.
+ *
+ * Methods are called on the main thread by
+ * {@link me.tabak.fragmentswitcher.SparseFragmentStatePagerAdapter}, keyed by
+ * {@link me.tabak.fragmentswitcher.SparseFragmentStatePagerAdapter#getItemId(int)}.
+ *
+ * @see me.tabak.fragmentswitcher.FileFragmentStateStore
+ */
+public interface FragmentStateStore {
+  /**
+   * @return The state stored for the key, or null if there is none
+   */
+  public Fragment.SavedState get(long key, ClassLoader loader);
+
+  /**
+   * Stores the state for the key, replacing any state stored before.  States that hold
+   * binders or file descriptors can't be marshalled with Parcel, so a store that marshals
+   * them must skip those instead of throwing.
+   */
+  public void put(long key, Fragment.SavedState state);
+
+  /**
+   * Removes the state stored for the key, if any.
+   */
+  public void remove(long key);
+}
@@ -16,21 +16,38 @@
 
 package me.tabak.fragmentswitcher;
 
+import android.content.ComponentCallbacks;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.res.Resources;
 import android.database.DataSetObserver;
+import android.graphics.Canvas;
+import android.os.Build;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.v4.app.Fragment;
 import android.support.v4.os.ParcelableCompat;
 import android.support.v4.os.ParcelableCompatCreatorCallbacks;
 import android.support.v4.view.PagerAdapter;
+import android.support.v4.view.ViewCompat;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.animation.Animation;
 import android.widget.FrameLayout;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+
 
 /**
  * A fragment switcher similar to a {@link android.support.v4.view.ViewPager}
@@ -41,14 +58,39 @@ import android.widget.FrameLayout;
  *
  * Compatible adapters include {@link me.tabak.fragmentswitcher.FragmentStateArrayPagerAdapter},
  * {@link me.tabak.fragmentswitcher.FragmentArrayPagerAdapter},
+ * {@link me.tabak.fragmentswitcher.FragmentStateFactoryPagerAdapter},
+ * {@link me.tabak.fragmentswitcher.SparseFragmentStatePagerAdapter},
  * {@link android.support.v4.app.FragmentStatePagerAdapter},
  * {@link android.support.v4.app.FragmentStatePagerAdapter}
+ *
+ * Pages can also be plain views, with {@link me.tabak.fragmentswitcher.RecyclingViewPagerAdapter},
+ * which switches without any FragmentManager transaction.
  */
 @SuppressWarnings("UnusedDeclaration")
 public class FragmentSwitcher extends FrameLayout {
-  private Fragment mCurrentFragment;
+  /**
+   * Switch requests are applied immediately.  This is the default.
+   */
+  public static final int COALESCE_NONE = -1;
+  /**
+   * Switch requests made before the next animation frame collapse into a single switch.
+   */
+  public static final int COALESCE_FRAME = 0;
+  /**
+   * Passed to {@link #setTrimMemoryLevels(int, int)} to never release that kind of memory.
+   */
+  public static final int TRIM_MEMORY_NEVER = Integer.MAX_VALUE;
+  private static final int TRANSITION_NONE = 0;
+  private static final int TRANSITION_EXIT = 1;
+  private static final int TRANSITION_SWITCH = 2;
+  private static final int TRANSITION_ENTER = 3;
+  private Object mCurrentItem;
   private static final String TAG = "FragmentSwitcher";
   private static final boolean DEBUG = false;
+  private static final String TRACE_SWITCH = "FragmentSwitcher#switch";
+  private static final String TRACE_DESTROY = "FragmentSwitcher#destroyItem";
+  private static final String TRACE_INSTANTIATE = "FragmentSwitcher#instantiateItem";
+  private static final String TRACE_COMMIT = "FragmentSwitcher#finishUpdate";
   private PagerAdapter mAdapter;
   private PagerObserver mObserver;
   private int mExpectedAdapterCount;
@@ -57,9 +99,108 @@ public class FragmentSwitcher extends FrameLayout {
   private int mRestoredCurItem;
   private Parcelable mRestoredAdapterState;
   private ClassLoader mRestoredClassLoader;
+  private Object mRestoredRetainedState;
+  private StateRetainer mStateRetainer;
   private boolean mInLayout;
   private int mCurrentPosition;
   private OnPageChangeListener mOnPageChangeListener;
+  private int mWarmCacheSize;
+  private final LinkedHashMap<Integer, Object> mWarmItems
+      = new LinkedHashMap<Integer, Object>(16, 0.75f, true);
+  private int[] mRestoredWarmPositions;
+  private LayoutPrefetcher mLayoutPrefetcher;
+  private OnSwitchMetricsListener mOnSwitchMetricsListener;
+  private SwitchMetrics mPendingMetrics;
+  private long mPendingMetricsCommitEnd;
+  private JankMonitor mJankMonitor;
+  private LeakDetector mLeakDetector;
+  private FrameTracker mFrameTracker;
+  private int mCoalesceWindow = COALESCE_NONE;
+  private int mPendingItem = -1;
+  private boolean mPendingSwitchScheduled;
+  private boolean mPopulateDirty;
+  private boolean mPopulateScheduled;
+  private final Runnable mPopulateRunnable = new Runnable() {
+    @Override
+    public void run() {
+      mPopulateScheduled = false;
+      if (mPopulateDirty) {
+        populate();
+      }
+    }
+  };
+  private int mTrimFragmentsLevel = TRIM_MEMORY_NEVER;
+  private int mTrimSavedStatesLevel = TRIM_MEMORY_NEVER;
+  private ComponentCallbacks mTrimMemoryCallbacks;
+  private SwitchPredictor mSwitchPredictor;
+  private int mMaxPredictedPages;
+  private int[] mPredictions;
+  private boolean mPredictionScheduled;
+  private PageDataPreloader mPageDataPreloader;
+  private MemoryBudget mMemoryBudget;
+  private final WeakHashMap<Object, Long> mWarmUses = new WeakHashMap<Object, Long>();
+  private final MessageQueue.IdleHandler mPredictionIdleHandler = new MessageQueue.IdleHandler() {
+    @Override
+    public boolean queueIdle() {
+      // One page per idle pass, so input that arrives in between is not held up.
+      if (warmNextPredictedPage()) {
+        return true;
+      }
+      mPredictionScheduled = false;
+      return false;
+    }
+  };
+  private SwitchTransition mSwitchTransition;
+  private int mTransitionPhase = TRANSITION_NONE;
+  private int mTransitionItem = -1;
+  private boolean mTransitionForward;
+  private View mAnimatingView;
+  private int mAnimatingViewLayerType;
+  private Animation mRunningAnimation;
+  private final Animation.AnimationListener mTransitionListener
+      = new Animation.AnimationListener() {
+    @Override
+    public void onAnimationStart(Animation animation) {
+    }
+
+    @Override
+    public void onAnimationEnd(Animation animation) {
+      if (animation == mRunningAnimation) {
+        mRunningAnimation = null;
+        // This is called while drawing, so the next step waits for the next frame.
+        ViewCompat.postOnAnimation(FragmentSwitcher.this, mTransitionStepRunnable);
+      }
+    }
+
+    @Override
+    public void onAnimationRepeat(Animation animation) {
+    }
+  };
+  private final Runnable mTransitionStepRunnable = new Runnable() {
+    @Override
+    public void run() {
+      if (mTransitionPhase == TRANSITION_EXIT) {
+        switchAfterExit();
+      } else {
+        endTransitionAnimation();
+        mTransitionPhase = TRANSITION_NONE;
+        schedulePrediction();
+      }
+    }
+  };
+  private final Runnable mTransitionEnterRunnable = new Runnable() {
+    @Override
+    public void run() {
+      startEnterAnimation();
+    }
+  };
+  private final Runnable mPendingSwitchRunnable = new Runnable() {
+    @Override
+    public void run() {
+      mPendingSwitchScheduled = false;
+      executePendingSwitch();
+    }
+  };
 
   public FragmentSwitcher(Context context) {
     super(context);
@@ -79,12 +220,22 @@ public class FragmentSwitcher extends FrameLayout {
    * @param adapter Adapter to use
    */
   public void setAdapter(PagerAdapter adapter) {
+    cancelPendingSwitch();
+    cancelTransition();
+    if (mPageDataPreloader != null) {
+      mPageDataPreloader.clear();
+    }
     if (mAdapter != null) {
       mAdapter.unregisterDataSetObserver(mObserver);
       mAdapter.startUpdate(this);
-      mAdapter.destroyItem(this, mCurrentPosition, mCurrentFragment);
+      if (mCurrentItem != null) {
+        destroyItem(mCurrentPosition, mCurrentItem);
+        mCurrentItem = null;
+      }
+      trimWarmCache(0);
       mAdapter.finishUpdate(this);
       mCurrentPosition = 0;
+      mRestoredWarmPositions = null;
     }
 
     mAdapter = adapter;
@@ -99,8 +250,11 @@ public class FragmentSwitcher extends FrameLayout {
       final boolean wasFirstLayout = mFirstLayout;
       mFirstLayout = true;
       mExpectedAdapterCount = mAdapter.getCount();
+      mPopulateDirty = true;
       if (mRestoredCurItem >= 0) {
         mAdapter.restoreState(mRestoredAdapterState, mRestoredClassLoader);
+        restoreRetainedState(mRestoredRetainedState);
+        mRestoredRetainedState = null;
         setCurrentItemInternal(mRestoredCurItem, true);
         mRestoredCurItem = -1;
         mRestoredAdapterState = null;
@@ -124,12 +278,32 @@ public class FragmentSwitcher extends FrameLayout {
     }
   }
 
+  /**
+   * @return The selected page, or the page a pending coalesced switch or a running transition
+   * will select
+   */
   public int getCurrentItem() {
-    return mCurrentPosition;
+    if (mPendingItem >= 0 && mAdapter != null && mAdapter.getCount() > 0) {
+      // Clamped the same way the switch will be.
+      return Math.min(mPendingItem, mAdapter.getCount() - 1);
+    }
+    return mTransitionItem >= 0 ? mTransitionItem : mCurrentPosition;
   }
 
+  /**
+   * @return The fragment of the selected page.  This is null until the selected page is
+   * populated, which happens on the next frame after the adapter removes it, and with
+   * adapters whose pages are views.
+   */
   public Fragment getCurrentFragment() {
-    return mCurrentFragment;
+    return mCurrentItem instanceof Fragment ? (Fragment) mCurrentItem : null;
+  }
+
+  /**
+   * @return The view of the selected page, or null if it has none yet
+   */
+  public View getCurrentView() {
+    return mCurrentItem != null ? getItemView(mCurrentItem) : null;
   }
 
   /**
@@ -138,33 +312,687 @@ public class FragmentSwitcher extends FrameLayout {
    * @param item Item index to select
    */
   public void setCurrentItem(int item) {
+    if (mCoalesceWindow == COALESCE_NONE || mFirstLayout || getWindowToken() == null) {
+      // Nothing is instantiated before the first layout, so there is nothing to save.
+      cancelPendingSwitch();
+      preloadPageData(item);
+      setCurrentItemInternal(item, false);
+      return;
+    }
+    if (item == mCurrentPosition && mCurrentItem != null) {
+      cancelPendingSwitch();
+      if (mTransitionPhase == TRANSITION_EXIT) {
+        cancelTransition();
+      }
+      return;
+    }
+    mPendingItem = item;
+    schedulePendingSwitch();
+  }
+
+  /**
+   * Start loading the data of a page with the specified loader as soon as a switch to it is
+   * dispatched, or it is prefetched, rather than when its fragment is created.  Pages skipped
+   * by a coalesced switch are not loaded.  Fragments that
+   * implement {@link PageDataReceiver} receive the result once they are added.  Loaders run
+   * on a small pool of background threads shared by all switchers.
+   *
+   * @param loader Loader to use, or null to stop preloading
+   */
+  public void setPageDataLoader(PageDataLoader<?> loader) {
+    setPageDataLoader(loader, null);
+  }
+
+  /**
+   * Like {@link #setPageDataLoader(PageDataLoader)}, but runs the loader on the specified
+   * executor.
+   *
+   * @param loader Loader to use, or null to stop preloading
+   * @param executor Executor to run the loader on
+   */
+  public void setPageDataLoader(PageDataLoader<?> loader, Executor executor) {
+    if (mPageDataPreloader != null) {
+      mPageDataPreloader.clear();
+    }
+    mPageDataPreloader = loader != null ? new PageDataPreloader(loader, executor) : null;
+  }
+
+  /**
+   * Starts loading the data of a page, unless it is already instantiated: its data was then
+   * loaded, or is loading, for the page itself.
+   */
+  private void preloadPageData(int position) {
+    if (mPageDataPreloader != null && mAdapter != null && position >= 0
+        && position < mAdapter.getCount()
+        && (position != mCurrentPosition || mCurrentItem == null)
+        && !mWarmItems.containsKey(position)) {
+      mPageDataPreloader.load(position);
+    }
+  }
+
+  /**
+   * Collapse switch requests made in quick succession, such as several taps on a navigation
+   * drawer, into one switch to the last requested page.  The pages in between are never
+   * instantiated or committed.  The window starts with the first request after a switch.
+   *
+   * @param windowMillis {@link #COALESCE_NONE}, {@link #COALESCE_FRAME}, or the number of
+   *                     milliseconds to wait for further requests
+   */
+  public void setCoalesceWindow(int windowMillis) {
+    if (windowMillis < COALESCE_NONE) {
+      throw new IllegalArgumentException("Invalid coalesce window: " + windowMillis);
+    }
+    mCoalesceWindow = windowMillis;
+    if (windowMillis == COALESCE_NONE) {
+      executePendingSwitch();
+    }
+  }
+
+  public int getCoalesceWindow() {
+    return mCoalesceWindow;
+  }
+
+  /**
+   * Performs a switch that is waiting for its coalesce window to close right away.
+   *
+   * @return Whether there was a pending switch
+   */
+  public boolean executePendingSwitch() {
+    final int item = mPendingItem;
+    cancelPendingSwitch();
+    if (item < 0) {
+      return false;
+    }
+    preloadPageData(item);
     setCurrentItemInternal(item, false);
+    return true;
   }
 
-  void setCurrentItemInternal(int item, boolean always) {
-    if (mAdapter == null || mAdapter.getCount() <= 0) {
+  private void schedulePendingSwitch() {
+    if (mPendingSwitchScheduled) {
       return;
     }
-    if (!always && mCurrentPosition == item && mCurrentFragment != null) {
-      return;
+    mPendingSwitchScheduled = true;
+    if (mCoalesceWindow == COALESCE_FRAME) {
+      ViewCompat.postOnAnimation(this, mPendingSwitchRunnable);
+    } else {
+      postDelayed(mPendingSwitchRunnable, mCoalesceWindow);
+    }
+  }
+
+  private void cancelPendingSwitch() {
+    if (mPendingSwitchScheduled) {
+      removeCallbacks(mPendingSwitchRunnable);
+      mPendingSwitchScheduled = false;
     }
+    mPendingItem = -1;
+  }
 
+  void setCurrentItemInternal(int item, boolean always) {
+    if (mAdapter == null || mAdapter.getCount() <= 0) {
+      return;
+    }
     if (item < 0) {
       item = 0;
     } else if (item >= mAdapter.getCount()) {
       item = mAdapter.getCount() - 1;
     }
 
+    if (mTransitionPhase == TRANSITION_EXIT) {
+      // The outgoing page is still animating out, so only the destination changes, unless
+      // it is the outgoing page itself.
+      if (item != mCurrentPosition) {
+        mTransitionItem = item;
+        return;
+      }
+      cancelTransition();
+    } else if (mTransitionPhase == TRANSITION_ENTER) {
+      cancelTransition();
+    }
+    if (!always && mCurrentPosition == item && mCurrentItem != null) {
+      return;
+    }
+
+    mPopulateDirty = true;
     if (mFirstLayout) {
       // We don't have any idea how big we are yet and shouldn't have any pages either.
       // Just set things up and let the pending layout handle things.
       mCurrentPosition = item;
       requestLayout();
+    } else if (shouldAnimateSwitch(item)) {
+      startExitAnimation(item);
     } else {
       populate(item);
     }
   }
 
+  /**
+   * Animate switches with the specified transition.  The outgoing page animates out, the
+   * switch is committed on the next frame, and the incoming page animates in on the frame
+   * after that, so the animations never share a frame with inflation.  Both pages are drawn
+   * from hardware layers while they animate.  Requests made while the outgoing page animates
+   * out only change the destination.
+   *
+   * @param transition Transition to use, or null to switch instantly
+   */
+  public void setSwitchTransition(SwitchTransition transition) {
+    if (transition == null && mTransitionPhase != TRANSITION_NONE) {
+      final int item = mTransitionItem;
+      cancelTransition();
+      if (item >= 0) {
+        setCurrentItemInternal(item, false);
+      }
+    }
+    mSwitchTransition = transition;
+  }
+
+  public SwitchTransition getSwitchTransition() {
+    return mSwitchTransition;
+  }
+
+  private boolean shouldAnimateSwitch(int item) {
+    return mSwitchTransition != null && mTransitionPhase == TRANSITION_NONE
+        && item != mCurrentPosition && mCurrentItem != null
+        && getItemView(mCurrentItem) != null && getWindowToken() != null;
+  }
+
+  private void startExitAnimation(int item) {
+    mTransitionPhase = TRANSITION_EXIT;
+    mTransitionItem = item;
+    mTransitionForward = item > mCurrentPosition;
+    Animation animation = mSwitchTransition.createExitAnimation(mTransitionForward);
+    // Stay hidden between the end of the animation and the switch.
+    animation.setFillAfter(true);
+    startTransitionAnimation(getItemView(mCurrentItem), animation);
+  }
+
+  /**
+   * Commits the switch once the outgoing page has animated out, and hides the incoming page
+   * until the next frame starts its animation.
+   */
+  private void switchAfterExit() {
+    final View outgoing = mAnimatingView;
+    endTransitionAnimation();
+    if (outgoing != null) {
+      outgoing.setVisibility(INVISIBLE);
+    }
+    final int item = mTransitionItem;
+    mTransitionItem = -1;
+    mTransitionPhase = TRANSITION_SWITCH;
+    setCurrentItemInternal(item, false);
+    final View incoming = mCurrentItem != null ? getItemView(mCurrentItem) : null;
+    if (incoming != null && mSwitchTransition != null) {
+      incoming.setVisibility(INVISIBLE);
+      mTransitionPhase = TRANSITION_ENTER;
+      ViewCompat.postOnAnimation(this, mTransitionEnterRunnable);
+    } else {
+      mTransitionPhase = TRANSITION_NONE;
+      schedulePrediction();
+    }
+  }
+
+  private void startEnterAnimation() {
+    final View incoming = mCurrentItem != null ? getItemView(mCurrentItem) : null;
+    if (incoming == null || mSwitchTransition == null) {
+      mTransitionPhase = TRANSITION_NONE;
+      schedulePrediction();
+      return;
+    }
+    incoming.setVisibility(VISIBLE);
+    startTransitionAnimation(incoming,
+                             mSwitchTransition.createEnterAnimation(mTransitionForward));
+  }
+
+  private void startTransitionAnimation(View view, Animation animation) {
+    mAnimatingView = view;
+    mAnimatingViewLayerType = ViewCompat.getLayerType(view);
+    ViewCompat.setLayerType(view, ViewCompat.LAYER_TYPE_HARDWARE, null);
+    mRunningAnimation = animation;
+    animation.setAnimationListener(mTransitionListener);
+    view.startAnimation(animation);
+  }
+
+  private void endTransitionAnimation() {
+    mRunningAnimation = null;
+    if (mAnimatingView != null) {
+      mAnimatingView.clearAnimation();
+      ViewCompat.setLayerType(mAnimatingView, mAnimatingViewLayerType, null);
+      mAnimatingView = null;
+    }
+  }
+
+  /**
+   * Stops a running transition and shows the current page as it is.  A switch that was
+   * waiting for the outgoing page to animate out is dropped.
+   */
+  private void cancelTransition() {
+    if (mTransitionPhase == TRANSITION_NONE) {
+      return;
+    }
+    removeCallbacks(mTransitionStepRunnable);
+    removeCallbacks(mTransitionEnterRunnable);
+    endTransitionAnimation();
+    if (mCurrentItem != null && getItemView(mCurrentItem) != null) {
+      getItemView(mCurrentItem).setVisibility(VISIBLE);
+    }
+    mTransitionItem = -1;
+    mTransitionPhase = TRANSITION_NONE;
+  }
+
+  /**
+   * Set the number of recently visited pages that stay attached, but hidden, after they
+   * are switched away from.  Switching back to one of them only makes it visible again
+   * instead of recreating its view.  When more pages than this are cached, the least
+   * recently visited one is destroyed by the adapter as usual.  The default is 0.
+   *
+   * @param size Number of hidden pages to keep
+   */
+  public void setWarmCacheSize(int size) {
+    if (size < 0) {
+      throw new IllegalArgumentException("Warm cache size must be >= 0, was " + size);
+    }
+    mWarmCacheSize = size;
+    trimWarmCacheToCapacity();
+  }
+
+  public int getWarmCacheSize() {
+    return mWarmCacheSize;
+  }
+
+  /**
+   * Learn which page tends to follow which with the specified predictor, and after each
+   * switch, while the main thread is idle, instantiate the pages it predicts will be shown
+   * next.  Switching to one of them then only makes it visible.  Predicted pages are kept in
+   * the warm cache, which grows by maxPredictedPages to hold them.  Pages switched away from
+   * are still only kept warm when {@link #setWarmCacheSize(int)} is above 0.  The predictor
+   * is cleared whenever the adapter's data set changes.
+   *
+   * @param predictor Predictor to record switches with, or null to stop predicting
+   * @param maxPredictedPages Largest number of predicted pages to instantiate
+   */
+  public void setSwitchPredictor(SwitchPredictor predictor, int maxPredictedPages) {
+    if (maxPredictedPages < 0) {
+      throw new IllegalArgumentException("maxPredictedPages must be >= 0, was "
+                                         + maxPredictedPages);
+    }
+    mSwitchPredictor = predictor;
+    mMaxPredictedPages = predictor != null ? maxPredictedPages : 0;
+    mPredictions = new int[mMaxPredictedPages];
+    trimWarmCacheToCapacity();
+    schedulePrediction();
+  }
+
+  public SwitchPredictor getSwitchPredictor() {
+    return mSwitchPredictor;
+  }
+
+  private int getWarmCacheCapacity() {
+    return mWarmCacheSize + mMaxPredictedPages;
+  }
+
+  private void trimWarmCacheToCapacity() {
+    if (mAdapter != null && mWarmItems.size() > getWarmCacheCapacity()) {
+      mAdapter.startUpdate(this);
+      trimWarmCache(getWarmCacheCapacity());
+      mAdapter.finishUpdate(this);
+    }
+  }
+
+  private void schedulePrediction() {
+    if (!mPredictionScheduled && mMaxPredictedPages > 0 && getWindowToken() != null) {
+      mPredictionScheduled = true;
+      Looper.myQueue().addIdleHandler(mPredictionIdleHandler);
+    }
+  }
+
+  /**
+   * Instantiates the most likely next page that isn't already instantiated, and keeps it
+   * warm.
+   *
+   * @return Whether a page was instantiated
+   */
+  private boolean warmNextPredictedPage() {
+    if (mAdapter == null || mSwitchPredictor == null || mCurrentItem == null
+        || mPopulateDirty || mPendingItem >= 0 || mTransitionPhase != TRANSITION_NONE
+        || getWindowToken() == null) {
+      return false;
+    }
+    final int count = mSwitchPredictor.predict(mCurrentPosition, mPredictions);
+    final int adapterCount = mAdapter.getCount();
+    for (int i = 0; i < count; i++) {
+      final int position = mPredictions[i];
+      if (position >= adapterCount || position == mCurrentPosition) {
+        continue;
+      }
+      // Looking a warm page up also marks it as recently used, so it is not evicted first.
+      Object warmItem = mWarmItems.get(position);
+      if (warmItem != null) {
+        mWarmUses.put(warmItem, UseClock.tick());
+        continue;
+      }
+      mAdapter.startUpdate(this);
+      Object item = addNewItem(position);
+      mWarmItems.put(position, item);
+      mWarmUses.put(item, UseClock.tick());
+      setItemVisible(item, false);
+      trimWarmCache(getWarmCacheCapacity());
+      mAdapter.finishUpdate(this);
+      if (mPageDataPreloader != null) {
+        mPageDataPreloader.deliver(position, item);
+      }
+      if (mMemoryBudget != null) {
+        mMemoryBudget.enforce();
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Keeps the outgoing item attached and hidden if the warm cache keeps visited pages,
+   * otherwise destroys it.  Must be called between startUpdate and finishUpdate.
+   */
+  private void releaseItem(int position, Object item) {
+    // The slots added for a predictor are only for predicted pages.
+    if (mWarmCacheSize > 0) {
+      setItemVisible(item, false);
+      mWarmItems.put(position, item);
+      mWarmUses.put(item, UseClock.tick());
+      trimWarmCache(getWarmCacheCapacity());
+    } else {
+      destroyItem(position, item);
+    }
+  }
+
+  /**
+   * Destroys the least recently visited warm items until at most maxSize remain.
+   * Must be called between startUpdate and finishUpdate.
+   */
+  private void trimWarmCache(int maxSize) {
+    Iterator<Map.Entry<Integer, Object>> iterator = mWarmItems.entrySet().iterator();
+    while (mWarmItems.size() > maxSize && iterator.hasNext()) {
+      Map.Entry<Integer, Object> eldest = iterator.next();
+      iterator.remove();
+      destroyItem(eldest.getKey(), eldest.getValue());
+    }
+  }
+
+  /**
+   * Sets the {@link android.content.ComponentCallbacks2} trim levels at which memory held for
+   * pages other than the current one is given back, farthest pages first.
+   *
+   * At fragmentsLevel and above, warm items are destroyed and so are fragments the adapter
+   * keeps, if it is a {@link TrimmableAdapter}.  At savedStatesLevel and above, the adapter's
+   * saved states are written to disk or dropped.  Everything is released at
+   * {@link android.content.ComponentCallbacks2#TRIM_MEMORY_RUNNING_CRITICAL} and
+   * {@link android.content.ComponentCallbacks2#TRIM_MEMORY_COMPLETE}, and only the farther
+   * half on each other callback, including
+   * {@link android.content.ComponentCallbacks2#TRIM_MEMORY_UI_HIDDEN}.
+   *
+   * Both default to {@link #TRIM_MEMORY_NEVER}, so nothing is released unless levels are set.
+   * Trim callbacks are only delivered on API 14 and later.
+   *
+   * @param fragmentsLevel Lowest level that releases fragments
+   * @param savedStatesLevel Lowest level that releases saved states
+   */
+  public void setTrimMemoryLevels(int fragmentsLevel, int savedStatesLevel) {
+    mTrimFragmentsLevel = fragmentsLevel;
+    mTrimSavedStatesLevel = savedStatesLevel;
+  }
+
+  /**
+   * Releases memory according to the trim levels.
+   */
+  void trimMemory(int level) {
+    if (mAdapter == null) {
+      return;
+    }
+    // Levels above RUNNING_CRITICAL mean the app is in the background, not that it is about
+    // to be killed, until COMPLETE.
+    final boolean all = level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL
+        || level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE;
+    if (level >= mTrimFragmentsLevel) {
+      if (!mWarmItems.isEmpty()) {
+        mAdapter.startUpdate(this);
+        trimFarthestWarmItems(all);
+        mAdapter.finishUpdate(this);
+      }
+      if (mAdapter instanceof TrimmableAdapter) {
+        ((TrimmableAdapter) mAdapter).trimFragments(mCurrentPosition, all);
+      }
+    }
+    if (level >= mTrimSavedStatesLevel && mAdapter instanceof TrimmableAdapter) {
+      ((TrimmableAdapter) mAdapter).trimSavedStates(mCurrentPosition, all);
+    }
+  }
+
+  /**
+   * Destroys the warm items farthest from the current position, all of them or half.
+   * Must be called between startUpdate and finishUpdate.
+   */
+  private void trimFarthestWarmItems(boolean all) {
+    int[] positions = new int[mWarmItems.size()];
+    int i = 0;
+    for (Integer position : mWarmItems.keySet()) {
+      positions[i++] = position;
+    }
+    TrimOrder.sortFarthestFirst(positions, positions.length, mCurrentPosition);
+    final int count = TrimOrder.countToTrim(positions.length, all);
+    for (i = 0; i < count; i++) {
+      destroyItem(positions[i], mWarmItems.remove(positions[i]));
+    }
+  }
+
+  /**
+   * Share one limit on retained fragments and saved state bytes with the other switchers
+   * that use the specified budget.  This switcher is a member while it is attached.
+   *
+   * @param budget Budget to join, or null to leave the current one
+   */
+  public void setMemoryBudget(MemoryBudget budget) {
+    if (mMemoryBudget != null) {
+      mMemoryBudget.leave(this);
+    }
+    mMemoryBudget = budget;
+    if (budget != null && getWindowToken() != null) {
+      budget.join(this);
+    }
+  }
+
+  public MemoryBudget getMemoryBudget() {
+    return mMemoryBudget;
+  }
+
+  int getRetainedFragmentCount() {
+    int count = mWarmItems.size();
+    if (mAdapter instanceof BudgetedAdapter) {
+      count += ((BudgetedAdapter) mAdapter).getRetainedFragmentCount();
+    }
+    return count;
+  }
+
+  long getOldestRetainedFragmentUse() {
+    final long warmUse = getEldestWarmUse();
+    if (mAdapter instanceof BudgetedAdapter) {
+      return Math.min(warmUse, ((BudgetedAdapter) mAdapter).getOldestRetainedFragmentUse());
+    }
+    return warmUse;
+  }
+
+  void releaseOldestRetainedFragment() {
+    if (mAdapter == null) {
+      return;
+    }
+    final long warmUse = getEldestWarmUse();
+    if (mAdapter instanceof BudgetedAdapter
+        && ((BudgetedAdapter) mAdapter).getOldestRetainedFragmentUse() < warmUse) {
+      ((BudgetedAdapter) mAdapter).releaseOldestRetainedFragment();
+    } else if (!mWarmItems.isEmpty()) {
+      mAdapter.startUpdate(this);
+      trimWarmCache(mWarmItems.size() - 1);
+      mAdapter.finishUpdate(this);
+    }
+  }
+
+  long getStateBytes() {
+    return mAdapter instanceof BudgetedAdapter
+        ? ((BudgetedAdapter) mAdapter).getStateBytes() : 0;
+  }
+
+  long getOldestStateUse() {
+    return mAdapter instanceof BudgetedAdapter
+        ? ((BudgetedAdapter) mAdapter).getOldestStateUse() : Long.MAX_VALUE;
+  }
+
+  void releaseOldestState() {
+    if (mAdapter instanceof BudgetedAdapter) {
+      ((BudgetedAdapter) mAdapter).releaseOldestState();
+    }
+  }
+
+  /**
+   * @return When the least recently visited warm item was last used, or
+   * {@link Long#MAX_VALUE} if there is none
+   */
+  private long getEldestWarmUse() {
+    if (mWarmItems.isEmpty()) {
+      return Long.MAX_VALUE;
+    }
+    Long use = mWarmUses.get(mWarmItems.values().iterator().next());
+    return use != null ? use : 0;
+  }
+
+  /**
+   * Re-adds the items that were warm when our state was saved.  Their fragments were
+   * restored by the FragmentManager, so they need to be hidden and tracked again.
+   */
+  private void restoreWarmItems(int currentPosition) {
+    int[] positions = mRestoredWarmPositions;
+    mRestoredWarmPositions = null;
+    final int count = mAdapter.getCount();
+    for (int position : positions) {
+      if (position < count && position != currentPosition
+          && !mWarmItems.containsKey(position)) {
+        Object item = addNewItem(position);
+        setItemVisible(item, false);
+        mWarmItems.put(position, item);
+        mWarmUses.put(item, UseClock.tick());
+      }
+    }
+    trimWarmCache(getWarmCacheCapacity());
+  }
+
+  /**
+   * Moves warm items that changed position and destroys the ones that are gone.
+   * Must be called between startUpdate and finishUpdate.
+   */
+  private void warmCacheChanged() {
+    List<Map.Entry<Integer, Object>> entries
+        = new ArrayList<Map.Entry<Integer, Object>>(mWarmItems.entrySet());
+    mWarmItems.clear();
+    for (Map.Entry<Integer, Object> entry : entries) {
+      final int newPos = mAdapter.getItemPosition(entry.getValue());
+      if (newPos == PagerAdapter.POSITION_NONE) {
+        destroyItem(entry.getKey(), entry.getValue());
+      } else if (newPos == PagerAdapter.POSITION_UNCHANGED) {
+        mWarmItems.put(entry.getKey(), entry.getValue());
+      } else {
+        mWarmItems.put(newPos, entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * @return The view of a fragment, or the item itself if it is a view
+   */
+  private static View getItemView(Object item) {
+    return item instanceof Fragment ? ((Fragment) item).getView() : (View) item;
+  }
+
+  private static void setItemVisible(Object item, boolean visible) {
+    View view = getItemView(item);
+    if (view != null) {
+      view.setVisibility(visible ? VISIBLE : GONE);
+    }
+  }
+
+  private boolean isWarmItemView(View view) {
+    for (Object item : mWarmItems.values()) {
+      if (getItemView(item) == view) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Start inflating the layout of the page at the specified position on a background
+   * thread, for example when a drawer starts closing or a list row is pressed.  The adapter
+   * must implement {@link LayoutProvider}, and the page's fragment must create its view
+   * with {@link #inflate(android.view.LayoutInflater, int, android.view.ViewGroup)} to
+   * receive the prefetched view.
+   *
+   * @param position Position of the page that will likely be shown next
+   */
+  public void prefetch(int position) {
+    preloadPageData(position);
+    if (mAdapter instanceof LayoutProvider && position >= 0 && position < mAdapter.getCount()) {
+      int layoutResId = ((LayoutProvider) mAdapter).getLayoutResource(position);
+      if (layoutResId != 0) {
+        prefetchLayout(layoutResId);
+      }
+    }
+  }
+
+  /**
+   * Start inflating the specified layout on a background thread.  The view is handed to
+   * the next fragment that creates its view with
+   * {@link #inflate(android.view.LayoutInflater, int, android.view.ViewGroup)}.
+   *
+   * Only layouts of plain views can be inflated off the main thread: no {@code <fragment>}
+   * tags, and no views such as WebView that expect to be created on the main thread.
+   *
+   * @param layoutResId Layout resource to inflate
+   */
+  public void prefetchLayout(int layoutResId) {
+    if (mLayoutPrefetcher == null) {
+      mLayoutPrefetcher = new LayoutPrefetcher(this);
+    }
+    mLayoutPrefetcher.prefetch(layoutResId);
+  }
+
+  /**
+   * Inflates a fragment's layout, using the view prefetched by
+   * {@link #prefetch(int)} if the fragment is being added to a FragmentSwitcher and
+   * the view is ready.  Call this from {@link Fragment#onCreateView}.
+   *
+   * @param inflater The inflater passed to onCreateView
+   * @param layoutResId Layout resource of the fragment
+   * @param container The container passed to onCreateView
+   * @return The fragment's view, not attached to the container
+   */
+  public static View inflate(LayoutInflater inflater, int layoutResId, ViewGroup container) {
+    if (container instanceof FragmentSwitcher) {
+      LayoutPrefetcher prefetcher = ((FragmentSwitcher) container).mLayoutPrefetcher;
+      View view = prefetcher != null ? prefetcher.take(layoutResId) : null;
+      if (view != null) {
+        return view;
+      }
+    }
+    return inflater.inflate(layoutResId, container, false);
+  }
+
+  /**
+   * Implemented by adapters that know the layout of their pages, so that
+   * {@link #prefetch(int)} can inflate them ahead of time.
+   */
+  public interface LayoutProvider {
+    /**
+     * @return The layout resource of the page at the specified position, or 0 if unknown
+     */
+    public int getLayoutResource(int position);
+  }
+
   /**
    * Callback interface for responding to changing state of the selected page.
    */
@@ -172,12 +1000,49 @@ public class FragmentSwitcher extends FrameLayout {
     public void onPageChanged(int page);
   }
 
-  Fragment addNewItem(int position) {
-    try {
-      return (Fragment) mAdapter.instantiateItem(this, position);
-    } catch (ClassCastException e) {
-      throw new RuntimeException("FragmentSwitcher's adapter must instantiate fragments", e);
+  /**
+   * Callback interface for measuring how long page switches take.
+   */
+  public interface OnSwitchMetricsListener {
+    /**
+     * Called after the first layout that follows a page switch.
+     */
+    public void onSwitchMeasured(SwitchMetrics metrics);
+  }
+
+  private void deliverPendingMetrics() {
+    SwitchMetrics metrics = mPendingMetrics;
+    if (metrics != null) {
+      mPendingMetrics = null;
+      if (mOnSwitchMetricsListener != null) {
+        mOnSwitchMetricsListener.onSwitchMeasured(metrics);
+      }
+    }
+  }
+
+  Object addNewItem(int position) {
+    Object item = mAdapter.instantiateItem(this, position);
+    if (!(item instanceof Fragment) && !(item instanceof View)) {
+      throw new RuntimeException("FragmentSwitcher's adapter must instantiate fragments or views"
+                                 + ", got " + item);
     }
+    return item;
+  }
+
+  /**
+   * Destroys an item through the adapter, and watches it if there is a leak detector.  A view
+   * item is made visible and its animation is cleared first, since the adapter may reuse it.
+   */
+  private void destroyItem(int position, Object item) {
+    if (mLeakDetector != null && item instanceof Fragment) {
+      mLeakDetector.watch(position, (Fragment) item);
+    }
+    if (item instanceof View) {
+      View view = (View) item;
+      view.clearAnimation();
+      view.setVisibility(VISIBLE);
+    }
+    mAdapter.destroyItem(this, position, item);
   }
 
   void dataSetChanged() {
@@ -185,11 +1050,26 @@ public class FragmentSwitcher extends FrameLayout {
 
     final int adapterCount = mAdapter.getCount();
     mExpectedAdapterCount = adapterCount;
-    boolean needPopulate = mCurrentFragment == null;
+    boolean needPopulate = mCurrentItem == null;
+    if (mPageDataPreloader != null) {
+      // Results are keyed by position, which may no longer mean the same page.
+      mPageDataPreloader.dataSetChanged();
+    }
+    if (mSwitchPredictor != null) {
+      // The predictor only knows positions, which may now belong to other pages.
+      mSwitchPredictor.clear();
+    }
     int newCurrItem = mCurrentPosition;
 
     boolean isUpdating = false;
-    final int newPos = mAdapter.getItemPosition(mCurrentFragment);
+    if (!mWarmItems.isEmpty()) {
+      mAdapter.startUpdate(this);
+      isUpdating = true;
+      warmCacheChanged();
+    }
+
+    final int newPos = mCurrentItem != null
+        ? mAdapter.getItemPosition(mCurrentItem) : PagerAdapter.POSITION_UNCHANGED;
 
     if (newPos == PagerAdapter.POSITION_NONE) {
       if (!isUpdating) {
@@ -197,16 +1077,20 @@ public class FragmentSwitcher extends FrameLayout {
         isUpdating = true;
       }
 
-      mAdapter.destroyItem(this, mCurrentPosition, mCurrentFragment);
-      mCurrentFragment = null;
+      destroyItem(mCurrentPosition, mCurrentItem);
+      mCurrentItem = null;
 
       // Keep the current item in the valid range
       newCurrItem = Math.max(0, Math.min(mCurrentPosition, adapterCount - 1));
       needPopulate = true;
-    } else if (mCurrentPosition != newPos) {
-      // Our current item changed position. Follow it.
+    } else if (newPos != PagerAdapter.POSITION_UNCHANGED && mCurrentPosition != newPos) {
+      // Our current item changed position. Follow it without recreating it.
+      mCurrentPosition = newPos;
       newCurrItem = newPos;
       needPopulate = true;
+      if (mOnPageChangeListener != null) {
+        mOnPageChangeListener.onPageChanged(newPos);
+      }
     }
 
     if (isUpdating) {
@@ -214,8 +1098,24 @@ public class FragmentSwitcher extends FrameLayout {
     }
 
     if (needPopulate) {
-      setCurrentItemInternal(newCurrItem, true);
+      // Notifications often come in bursts, so populate once on the next frame instead of for
+      // every one of them.
+      mCurrentPosition = Math.max(0, Math.min(newCurrItem, adapterCount - 1));
+      schedulePopulate();
+    }
+  }
+
+  /**
+   * Marks the current item as out of date and populates on the next animation frame, or on the
+   * next measure if that comes first.
+   */
+  private void schedulePopulate() {
+    mPopulateDirty = true;
+    if (mFirstLayout || getWindowToken() == null) {
       requestLayout();
+    } else if (!mPopulateScheduled) {
+      mPopulateScheduled = true;
+      ViewCompat.postOnAnimation(this, mPopulateRunnable);
     }
   }
 
@@ -244,6 +1144,11 @@ public class FragmentSwitcher extends FrameLayout {
       return;
     }
 
+    // Nothing changed since the last populate.
+    if (!mPopulateDirty && mCurrentItem != null && position == mCurrentPosition) {
+      return;
+    }
+
     final int N = mAdapter.getCount();
 
     if (N != mExpectedAdapterCount) {
@@ -261,38 +1166,170 @@ public class FragmentSwitcher extends FrameLayout {
                                       " Problematic adapter: " + mAdapter.getClass());
     }
 
+    mPopulateDirty = false;
     mAdapter.startUpdate(this);
 
-    if (mCurrentFragment != null && mCurrentPosition != position) {
-      mAdapter.destroyItem(this, mCurrentPosition, mCurrentFragment);
+    if (mRestoredWarmPositions != null) {
+      restoreWarmItems(position);
+    }
+
+    final boolean switching = (mCurrentItem == null || mCurrentPosition != position) && N > 0;
+    final int previousPosition = mCurrentItem != null ? mCurrentPosition : -1;
+    // Take the new item out of the warm cache before the old one goes in, so it can't be evicted.
+    final Object warmItem = switching ? mWarmItems.remove(position) : null;
+
+    SwitchMetrics metrics = null;
+    if (switching) {
+      Traces.beginSection(TRACE_SWITCH);
+      if (mOnSwitchMetricsListener != null) {
+        // A switch that never got a layout is reported without one.
+        deliverPendingMetrics();
+        metrics = new SwitchMetrics();
+        metrics.mPosition = position;
+        metrics.mPreviousPosition = mCurrentItem != null ? mCurrentPosition : -1;
+      }
+    }
+    final long destroyStart = System.nanoTime();
+
+    if (switching && mTransitionPhase == TRANSITION_EXIT && mAnimatingView != null) {
+      // The outgoing page is released before it finished animating out, for example because
+      // it was removed, so the transition moves on to its destination.
+      final boolean ended = mRunningAnimation == null;
+      endTransitionAnimation();
+      if (!ended) {
+        ViewCompat.postOnAnimation(this, mTransitionStepRunnable);
+      }
+    } else if (switching && mTransitionPhase == TRANSITION_ENTER) {
+      cancelTransition();
+    }
+    if (mCurrentItem != null && mCurrentPosition != position) {
+      Traces.beginSection(TRACE_DESTROY);
+      releaseItem(mCurrentPosition, mCurrentItem);
+      Traces.endSection();
     }
+    final long instantiateStart = System.nanoTime();
 
     // Locate the currently focused item or add it if needed.
-    if ((mCurrentFragment == null || mCurrentPosition != position) && mAdapter.getCount() > 0) {
-      mCurrentFragment = addNewItem(position);
+    Object addedItem = null;
+    if (switching) {
+      if (warmItem != null) {
+        setItemVisible(warmItem, true);
+        mCurrentItem = warmItem;
+      } else {
+        Traces.beginSection(TRACE_INSTANTIATE);
+        addedItem = addNewItem(position);
+        mCurrentItem = addedItem;
+        Traces.endSection();
+      }
+      if (mSwitchPredictor != null && previousPosition >= 0) {
+        mSwitchPredictor.recordSwitch(previousPosition, position);
+        schedulePrediction();
+      }
       mCurrentPosition = position;
       if (mOnPageChangeListener != null) {
         mOnPageChangeListener.onPageChanged(mCurrentPosition);
       }
     }
+    final long commitStart = System.nanoTime();
 
-    mAdapter.setPrimaryItem(this, mCurrentPosition, mCurrentFragment);
+    Traces.beginSection(TRACE_COMMIT);
+    mAdapter.setPrimaryItem(this, mCurrentPosition, mCurrentItem);
 
     mAdapter.finishUpdate(this);
+    Traces.endSection();
+
+    if (addedItem != null && mPageDataPreloader != null) {
+      mPageDataPreloader.deliver(position, addedItem);
+    }
+    if (switching && mFrameTracker != null) {
+      mFrameTracker.start(mJankMonitor, position, destroyStart);
+    }
+    if (switching && mMemoryBudget != null) {
+      mMemoryBudget.enforce();
+    }
+    if (switching) {
+      Traces.endSection();
+    }
+    if (metrics != null) {
+      final long commitEnd = System.nanoTime();
+      metrics.mDestroyNanos = instantiateStart - destroyStart;
+      metrics.mInstantiateNanos = commitStart - instantiateStart;
+      metrics.mCommitNanos = commitEnd - commitStart;
+      mPendingMetrics = metrics;
+      mPendingMetricsCommitEnd = commitEnd;
+    }
   }
 
   @Override
   protected void onAttachedToWindow() {
     super.onAttachedToWindow();
     mFirstLayout = true;
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH
+        && mTrimMemoryCallbacks == null) {
+      mTrimMemoryCallbacks = new TrimMemoryCallbacks(this);
+      getContext().getApplicationContext().registerComponentCallbacks(mTrimMemoryCallbacks);
+    }
+    if (mPendingItem >= 0) {
+      // The callback was dropped when we were detached.
+      schedulePendingSwitch();
+    }
+    if (mMemoryBudget != null) {
+      mMemoryBudget.join(this);
+    }
+  }
+
+  @Override
+  protected void onDetachedFromWindow() {
+    super.onDetachedFromWindow();
+    if (mTrimMemoryCallbacks != null) {
+      getContext().getApplicationContext().unregisterComponentCallbacks(mTrimMemoryCallbacks);
+      mTrimMemoryCallbacks = null;
+    }
+    if (mPageDataPreloader != null) {
+      mPageDataPreloader.clear();
+    }
+    if (mMemoryBudget != null) {
+      mMemoryBudget.leave(this);
+    }
+    if (mFrameTracker != null) {
+      mFrameTracker.stop();
+    }
+    if (mPendingSwitchScheduled) {
+      removeCallbacks(mPendingSwitchRunnable);
+      mPendingSwitchScheduled = false;
+    }
+    if (mTransitionPhase != TRANSITION_NONE) {
+      // Finish an interrupted switch without animating once we are attached again.
+      final int item = mTransitionItem;
+      cancelTransition();
+      if (item >= 0) {
+        mPendingItem = item;
+      }
+    }
+    if (mPredictionScheduled) {
+      Looper.myQueue().removeIdleHandler(mPredictionIdleHandler);
+      mPredictionScheduled = false;
+    }
+    if (mPopulateScheduled) {
+      // Still dirty, so the first measure after attaching populates.
+      removeCallbacks(mPopulateRunnable);
+      mPopulateScheduled = false;
+    }
+    if (mLayoutPrefetcher != null) {
+      mLayoutPrefetcher.clear();
+    }
   }
 
   @Override
   protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
     super.onMeasure(widthMeasureSpec, heightMeasureSpec);
-    mInLayout = true;
-    populate();
-    mInLayout = false;
+    // A container can be measured several times per frame; only the first pass after a change
+    // needs to touch the adapter.
+    if (mPopulateDirty) {
+      mInLayout = true;
+      populate();
+      mInLayout = false;
+    }
   }
 
   /**
@@ -300,7 +1337,9 @@ public class FragmentSwitcher extends FrameLayout {
    */
   public static class SavedState extends BaseSavedState {
     int position;
+    int[] warmPositions;
     Parcelable adapterState;
+    boolean adapterStateRetained;
     ClassLoader loader;
 
     public SavedState(Parcelable superState) {
@@ -311,7 +1350,9 @@ public class FragmentSwitcher extends FrameLayout {
     public void writeToParcel(Parcel out, int flags) {
       super.writeToParcel(out, flags);
       out.writeInt(position);
+      out.writeIntArray(warmPositions);
       out.writeParcelable(adapterState, flags);
+      out.writeInt(adapterStateRetained ? 1 : 0);
     }
 
     @Override
@@ -340,7 +1381,9 @@ public class FragmentSwitcher extends FrameLayout {
         loader = getClass().getClassLoader();
       }
       position = in.readInt();
+      warmPositions = in.createIntArray();
       adapterState = in.readParcelable(loader);
+      adapterStateRetained = in.readInt() != 0;
       this.loader = loader;
     }
   }
@@ -349,8 +1392,21 @@ public class FragmentSwitcher extends FrameLayout {
   public Parcelable onSaveInstanceState() {
     Parcelable superState = super.onSaveInstanceState();
     SavedState ss = new SavedState(superState);
-    ss.position = mCurrentPosition;
+    ss.position = getCurrentItem();
+    if (!mWarmItems.isEmpty()) {
+      // Eldest first, so the cache is rebuilt in the same order.
+      ss.warmPositions = new int[mWarmItems.size()];
+      int i = 0;
+      for (Integer position : mWarmItems.keySet()) {
+        ss.warmPositions[i++] = position;
+      }
+    }
     if (mAdapter != null) {
+      if (mStateRetainer != null && mAdapter instanceof RetainableAdapter && getId() != NO_ID
+          && mStateRetainer.isChangingConfigurations()) {
+        mStateRetainer.put(getId(), ((RetainableAdapter) mAdapter).retainState());
+        ss.adapterStateRetained = true;
+      }
       ss.adapterState = mAdapter.saveState();
     }
     return ss;
@@ -366,21 +1422,59 @@ public class FragmentSwitcher extends FrameLayout {
     SavedState ss = (SavedState)state;
     super.onRestoreInstanceState(ss.getSuperState());
 
+    mRestoredWarmPositions = ss.warmPositions;
+    Object retainedState = null;
+    if (ss.adapterStateRetained) {
+      retainedState = mStateRetainer != null ? mStateRetainer.take(getId()) : null;
+      if (retainedState == null) {
+        Log.w(TAG, "The adapter state was retained, but no StateRetainer has it");
+      }
+    }
     if (mAdapter != null) {
       mAdapter.restoreState(ss.adapterState, ss.loader);
+      restoreRetainedState(retainedState);
       setCurrentItemInternal(ss.position, true);
     } else {
       mRestoredCurItem = ss.position;
       mRestoredAdapterState = ss.adapterState;
       mRestoredClassLoader = ss.loader;
+      mRestoredRetainedState = retainedState;
+    }
+  }
+
+  private void restoreRetainedState(Object state) {
+    if (state != null && mAdapter instanceof RetainableAdapter) {
+      ((RetainableAdapter) mAdapter).restoreRetainedState(state);
     }
   }
 
+  /**
+   * Keep the adapter's state in memory when the activity is recreated for a configuration
+   * change, instead of parceling it, if the adapter is a {@link RetainableAdapter}.  It is
+   * handed to the adapter of the recreated switcher with the same id.  When the activity is
+   * stopped for any other reason, the state is parceled as usual, so it survives the process
+   * being killed.
+   *
+   * @param retainer Retainer of the activity, from {@link StateRetainer#from}, or null to
+   *                 always parcel the adapter's state
+   */
+  public void setStateRetainer(StateRetainer retainer) {
+    mStateRetainer = retainer;
+  }
+
+  public StateRetainer getStateRetainer() {
+    return mStateRetainer;
+  }
+
   @Override
   public void addView(View child, int index, ViewGroup.LayoutParams params) {
     if (!checkLayoutParams(params)) {
       params = generateLayoutParams(params);
     }
+    // The view of a warm item can arrive after the item was hidden.
+    if (!mWarmItems.isEmpty() && isWarmItemView(child)) {
+      child.setVisibility(GONE);
+    }
     if (mInLayout) {
       addViewInLayout(child, index, params);
     } else {
@@ -397,10 +1491,25 @@ public class FragmentSwitcher extends FrameLayout {
     }
   }
 
+  @Override
+  protected void dispatchDraw(Canvas canvas) {
+    super.dispatchDraw(canvas);
+    if (mFrameTracker != null && mCurrentItem != null) {
+      View view = getItemView(mCurrentItem);
+      if (view != null && view.getVisibility() == VISIBLE) {
+        mFrameTracker.onDraw();
+      }
+    }
+  }
+
   @Override
   protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
     super.onLayout(changed, left, top, right, bottom);
     mFirstLayout = false;
+    if (mPendingMetrics != null) {
+      mPendingMetrics.mFirstLayoutNanos = System.nanoTime() - mPendingMetricsCommitEnd;
+      deliverPendingMetrics();
+    }
   }
 
   /**
@@ -421,4 +1530,55 @@ public class FragmentSwitcher extends FrameLayout {
   public void setOnPageChangeListener(OnPageChangeListener listener) {
     mOnPageChangeListener = listener;
   }
+
+  /**
+   * Set a listener that will be told how long each phase of every page switch took, from
+   * destroying the outgoing page until the first layout with the incoming one.  Switches
+   * are also marked with {@link android.os.Trace} sections on Android 4.3 and up,
+   * whether or not a listener is set.
+   *
+   * @param listener Listener to set
+   */
+  public void setOnSwitchMetricsListener(OnSwitchMetricsListener listener) {
+    mOnSwitchMetricsListener = listener;
+    if (listener == null) {
+      mPendingMetrics = null;
+    }
+  }
+
+  /**
+   * Record, with the specified monitor, how many frames run long during each switch until
+   * the incoming page is first drawn.  Frames are only observed on Android 4.1 and up.
+   *
+   * @param monitor Monitor to record with, which may be shared, or null to stop recording
+   */
+  public void setJankMonitor(JankMonitor monitor) {
+    mJankMonitor = monitor;
+    if (monitor == null) {
+      if (mFrameTracker != null) {
+        mFrameTracker.stop();
+        mFrameTracker = null;
+      }
+    } else if (mFrameTracker == null && JankMonitor.isSupported()) {
+      mFrameTracker = new FrameTracker();
+    }
+  }
+
+  public JankMonitor getJankMonitor() {
+    return mJankMonitor;
+  }
+
+  /**
+   * Watch the fragments of destroyed pages with the specified detector, which reports the
+   * ones that are still reachable after a while.  Only meant for debug builds.
+   *
+   * @param detector Detector to use, which may be shared, or null to stop watching
+   */
+  public void setLeakDetector(LeakDetector detector) {
+    mLeakDetector = detector;
+  }
+
+  public LeakDetector getLeakDetector() {
+    return mLeakDetector;
+  }
 }
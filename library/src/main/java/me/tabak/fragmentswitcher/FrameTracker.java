@@ -0,0 +1,114 @@
+/*
+ * Copyright 2014 Jacob Tabak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tabak.fragmentswitcher;
+
+import android.view.Choreographer;
+
+
+/**
+ * Records frame intervals for a {@link JankMonitor} from the start of a switch until the
+ * frame after the incoming page is first drawn.  Kept out of FragmentSwitcher because
+ * Choreographer only exists on API 16 and later.
+ */
+final class FrameTracker implements Choreographer.FrameCallback {
+  /**
+   * Frames recorded at most, in case the incoming page is never drawn.
+   */
+  private static final int MAX_FRAMES = 120;
+  private JankMonitor mMonitor;
+  private int mPosition = -1;
+  private long mLastFrameNanos;
+  private int mFrameCount;
+  private int mJankyFrameCount;
+  private long mWorstFrameNanos;
+  private boolean mDrawn;
+  private boolean mPosted;
+
+  /**
+   * Starts tracking a switch to the specified position, reporting the previous one if it is
+   * still being tracked.
+   *
+   * @param startNanos When the switch started, in {@link System#nanoTime()} time
+   */
+  void start(JankMonitor monitor, int position, long startNanos) {
+    if (mPosition >= 0) {
+      finish();
+    }
+    mMonitor = monitor;
+    mPosition = position;
+    mLastFrameNanos = startNanos;
+    mFrameCount = 0;
+    mJankyFrameCount = 0;
+    mWorstFrameNanos = 0;
+    mDrawn = false;
+    if (!mPosted) {
+      mPosted = true;
+      Choreographer.getInstance().postFrameCallback(this);
+    }
+  }
+
+  /**
+   * Called when the switcher has drawn the incoming page.
+   */
+  void onDraw() {
+    if (mPosition >= 0) {
+      mDrawn = true;
+    }
+  }
+
+  /**
+   * Stops tracking without reporting.
+   */
+  void stop() {
+    if (mPosted) {
+      Choreographer.getInstance().removeFrameCallback(this);
+      mPosted = false;
+    }
+    mPosition = -1;
+    mMonitor = null;
+  }
+
+  @Override
+  public void doFrame(long frameTimeNanos) {
+    mPosted = false;
+    if (mPosition < 0) {
+      return;
+    }
+    final long frameNanos = frameTimeNanos - mLastFrameNanos;
+    mLastFrameNanos = frameTimeNanos;
+    if (frameNanos > 0) {
+      mFrameCount++;
+      if (mMonitor.isJanky(frameNanos)) {
+        mJankyFrameCount++;
+      }
+      mWorstFrameNanos = Math.max(mWorstFrameNanos, frameNanos);
+    }
+    // The interval that ends with this frame includes the first draw.
+    if (mDrawn || mFrameCount >= MAX_FRAMES) {
+      finish();
+    } else {
+      mPosted = true;
+      Choreographer.getInstance().postFrameCallback(this);
+    }
+  }
+
+  private void finish() {
+    mMonitor.record(mPosition, mFrameCount, mJankyFrameCount, mWorstFrameNanos);
+    mPosition = -1;
+    mMonitor = null;
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014 Jacob Tabak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tabak.fragmentswitcher;
+
+import android.os.Build;
+import android.support.v4.util.SparseArrayCompat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+
+/**
+ * Counts the frames that run long while {@link FragmentSwitcher} switches pages, so the
+ * destinations whose creation hurts smoothness can be found.
+ *
+ * For each switch, the interval between consecutive frames is recorded from the start of the
+ * switch until the frame after the incoming page is first drawn.  Statistics are kept per
+ * destination position and in total, and can be read at any time, for example to be sent
+ * with other analytics.  A monitor can be shared by several switchers.  Frames are only
+ * observed on Android 4.1 and up, where {@link android.view.Choreographer} is available.
+ *
+ * @see FragmentSwitcher#setJankMonitor(JankMonitor)
+ */
+public class JankMonitor {
+  /**
+   * Frames longer than this many milliseconds are counted as janky by default.
+   */
+  public static final int DEFAULT_JANK_THRESHOLD_MILLIS = 16;
+  private static final Comparator<JankStats> MOST_JANKY_FIRST = new Comparator<JankStats>() {
+    @Override
+    public int compare(JankStats lhs, JankStats rhs) {
+      if (lhs.mJankyFrameCount != rhs.mJankyFrameCount) {
+        return lhs.mJankyFrameCount > rhs.mJankyFrameCount ? -1 : 1;
+      }
+      return lhs.mWorstFrameNanos > rhs.mWorstFrameNanos ? -1
+          : (lhs.mWorstFrameNanos == rhs.mWorstFrameNanos ? 0 : 1);
+    }
+  };
+  private final int mJankThresholdMillis;
+  private final SparseArrayCompat<JankStats> mStats = new SparseArrayCompat<JankStats>();
+  private final JankStats mTotal = new JankStats(-1);
+
+  public JankMonitor() {
+    this(DEFAULT_JANK_THRESHOLD_MILLIS);
+  }
+
+  /**
+   * @param jankThresholdMillis Frames that take longer than this, in whole milliseconds, are
+   * counted as janky
+   */
+  public JankMonitor(int jankThresholdMillis) {
+    if (jankThresholdMillis <= 0) {
+      throw new IllegalArgumentException("jankThresholdMillis must be > 0, was "
+                                         + jankThresholdMillis);
+    }
+    mJankThresholdMillis = jankThresholdMillis;
+  }
+
+  /**
+   * @return Whether frames can be observed on this device
+   */
+  public static boolean isSupported() {
+    return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+  }
+
+  public int getJankThresholdMillis() {
+    return mJankThresholdMillis;
+  }
+
+  boolean isJanky(long frameNanos) {
+    return frameNanos / 1000000 > mJankThresholdMillis;
+  }
+
+  void record(int position, int frameCount, int jankyFrameCount, long worstFrameNanos) {
+    JankStats stats = mStats.get(position);
+    if (stats == null) {
+      stats = new JankStats(position);
+      mStats.put(position, stats);
+    }
+    stats.add(frameCount, jankyFrameCount, worstFrameNanos);
+    mTotal.add(frameCount, jankyFrameCount, worstFrameNanos);
+  }
+
+  /**
+   * @return A copy of the statistics of switches to the specified position, or null if there
+   * were none
+   */
+  public JankStats getStats(int position) {
+    JankStats stats = mStats.get(position);
+    return stats != null ? new JankStats(stats) : null;
+  }
+
+  /**
+   * @return Copies of the statistics of every destination, the one with the most janky
+   * frames first
+   */
+  public List<JankStats> getAllStats() {
+    List<JankStats> all = new ArrayList<JankStats>(mStats.size());
+    for (int i = 0; i < mStats.size(); i++) {
+      all.add(new JankStats(mStats.valueAt(i)));
+    }
+    Collections.sort(all, MOST_JANKY_FIRST);
+    return all;
+  }
+
+  /**
+   * @return A copy of the statistics of all switches together
+   */
+  public JankStats getTotalStats() {
+    return new JankStats(mTotal);
+  }
+
+  /**
+   * Forgets everything recorded so far.
+   */
+  public void reset() {
+    mStats.clear();
+    mTotal.mSwitchCount = 0;
+    mTotal.mFrameCount = 0;
+    mTotal.mJankyFrameCount = 0;
+    mTotal.mWorstFrameNanos = 0;
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2014 Jacob Tabak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tabak.fragmentswitcher;
+
+
+/**
+ * Frame statistics of the switches to one destination, or of all switches, collected by a
+ * {@link JankMonitor}.  Frame times are the intervals between consecutive frames, in
+ * nanoseconds.
+ */
+public final class JankStats {
+  int mPosition;
+  int mSwitchCount;
+  int mFrameCount;
+  int mJankyFrameCount;
+  long mWorstFrameNanos;
+
+  JankStats(int position) {
+    mPosition = position;
+  }
+
+  JankStats(JankStats other) {
+    mPosition = other.mPosition;
+    mSwitchCount = other.mSwitchCount;
+    mFrameCount = other.mFrameCount;
+    mJankyFrameCount = other.mJankyFrameCount;
+    mWorstFrameNanos = other.mWorstFrameNanos;
+  }
+
+  void add(int frameCount, int jankyFrameCount, long worstFrameNanos) {
+    mSwitchCount++;
+    mFrameCount += frameCount;
+    mJankyFrameCount += jankyFrameCount;
+    mWorstFrameNanos = Math.max(mWorstFrameNanos, worstFrameNanos);
+  }
+
+  /**
+   * @return The position that was switched to, or -1 for the totals of all destinations
+   */
+  public int getPosition() {
+    return mPosition;
+  }
+
+  /**
+   * @return The number of switches measured
+   */
+  public int getSwitchCount() {
+    return mSwitchCount;
+  }
+
+  /**
+   * @return The number of frames from the start of each switch until the first draw of the
+   * incoming page
+   */
+  public int getFrameCount() {
+    return mFrameCount;
+  }
+
+  /**
+   * @return The number of those frames that took longer than the monitor's threshold
+   */
+  public int getJankyFrameCount() {
+    return mJankyFrameCount;
+  }
+
+  /**
+   * @return The longest of those frames
+   */
+  public long getWorstFrameNanos() {
+    return mWorstFrameNanos;
+  }
+
+  @Override
+  public String toString() {
+    return "JankStats{"
+           + "position=" + mPosition
+           + " switchCount=" + mSwitchCount
+           + " frameCount=" + mFrameCount
+           + " jankyFrameCount=" + mJankyFrameCount
+           + " worstFrameNanos=" + mWorstFrameNanos + "}";
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2014 Jacob Tabak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tabak.fragmentswitcher;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.support.v4.util.SparseArrayCompat;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+
+/**
+ * Inflates layouts on a background thread and holds on to the result until it is taken
+ * on the main thread.  At most one view is kept per layout resource.
+ *
+ * LayoutInflater is not thread-safe, so the prefetcher inflates with its own clone of the
+ * context's inflater, which is only ever used on the background thread.  The clone shares
+ * the original's factories, so layouts inflated this way must only contain plain views: no
+ * {@code <fragment>} tags, which the activity's factory turns into fragment transactions, no
+ * views that create a Handler or otherwise expect to run on the main thread in their
+ * constructors, such as WebView, and no views that a factory which isn't thread-safe
+ * replaces.  If inflation fails, the error is logged and the layout is simply inflated on
+ * the main thread when it is needed.
+ */
+final class LayoutPrefetcher {
+  private static final String TAG = "LayoutPrefetcher";
+  private static Handler sBackgroundHandler;
+
+  private final ViewGroup mParent;
+  private final LayoutInflater mInflater;
+  private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+  private final SparseArrayCompat<View> mReadyViews = new SparseArrayCompat<View>();
+  private final SparseArrayCompat<Boolean> mPendingLayouts = new SparseArrayCompat<Boolean>();
+  private int mGeneration;
+
+  LayoutPrefetcher(ViewGroup parent) {
+    mParent = parent;
+    mInflater = LayoutInflater.from(parent.getContext()).cloneInContext(parent.getContext());
+  }
+
+  /**
+   * Starts inflating the specified layout unless it is already inflated or being inflated.
+   * Must be called on the main thread.
+   */
+  void prefetch(final int layoutResId) {
+    if (mReadyViews.get(layoutResId) != null || mPendingLayouts.get(layoutResId) != null) {
+      return;
+    }
+    mPendingLayouts.put(layoutResId, Boolean.TRUE);
+    final int generation = mGeneration;
+    getBackgroundHandler().post(new Runnable() {
+      @Override
+      public void run() {
+        View view = null;
+        try {
+          view = mInflater.inflate(layoutResId, mParent, false);
+        } catch (RuntimeException e) {
+          Log.w(TAG, "Failed to inflate layout in the background, it will be inflated on"
+                     + " the main thread instead", e);
+        }
+        final View result = view;
+        mMainHandler.post(new Runnable() {
+          @Override
+          public void run() {
+            if (generation != mGeneration) {
+              return;
+            }
+            mPendingLayouts.remove(layoutResId);
+            if (result != null) {
+              mReadyViews.put(layoutResId, result);
+            }
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Returns the prefetched view for the specified layout, or null if it isn't ready.
+   * Must be called on the main thread.
+   */
+  View take(int layoutResId) {
+    View view = mReadyViews.get(layoutResId);
+    if (view != null) {
+      mReadyViews.remove(layoutResId);
+    }
+    return view;
+  }
+
+  /**
+   * Drops every prefetched view and ignores inflations that are still running.
+   */
+  void clear() {
+    mGeneration++;
+    mReadyViews.clear();
+    mPendingLayouts.clear();
+  }
+
+  private static synchronized Handler getBackgroundHandler() {
+    if (sBackgroundHandler == null) {
+      HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+      thread.start();
+      sBackgroundHandler = new Handler(thread.getLooper());
+    }
+    return sBackgroundHandler;
+  }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2014 Jacob Tabak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tabak.fragmentswitcher;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.v4.app.Fragment;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Finds fragments, and views of fragments, that are still reachable some time after a
+ * {@link FragmentSwitcher} destroyed their pages, and estimates how much memory each
+ * destination keeps that way.
+ *
+ * Destroyed fragments and their views are watched through weak references.  After the check
+ * delay the detector forces a garbage collection, and every one that is still reachable, and
+ * not shown again, is reported once to the listener.  Reports stay available from
+ * {@link #getRetained()} until what they describe is collected.
+ *
+ * Forcing garbage collections is slow, so only use a detector in debug builds.  It must only
+ * be used on the main thread, and can be shared by several switchers.
+ *
+ * @see FragmentSwitcher#setLeakDetector(LeakDetector)
+ */
+public class LeakDetector {
+  public static final long DEFAULT_CHECK_DELAY_MILLIS = 5000;
+  /**
+   * Rough size of a view object and what it always allocates, not counting bitmaps.
+   */
+  private static final int VIEW_BYTES = 512;
+  private final long mCheckDelayMillis;
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private final ArrayList<Watch> mWatches = new ArrayList<Watch>();
+  private OnLeakListener mOnLeakListener;
+  private boolean mCheckScheduled;
+  private final Runnable mCheckRunnable = new Runnable() {
+    @Override
+    public void run() {
+      mCheckScheduled = false;
+      check();
+    }
+  };
+
+  public LeakDetector() {
+    this(DEFAULT_CHECK_DELAY_MILLIS);
+  }
+
+  /**
+   * @param checkDelayMillis Time a destroyed fragment has to become unreachable
+   */
+  public LeakDetector(long checkDelayMillis) {
+    if (checkDelayMillis < 0) {
+      throw new IllegalArgumentException("checkDelayMillis must be >= 0, was "
+                                         + checkDelayMillis);
+    }
+    mCheckDelayMillis = checkDelayMillis;
+  }
+
+  /**
+   * Callback interface for fragments that are reachable after their page was destroyed.
+   */
+  public interface OnLeakListener {
+    public void onLeakSuspected(LeakReport report);
+  }
+
+  public void setOnLeakListener(OnLeakListener listener) {
+    mOnLeakListener = listener;
+  }
+
+  /**
+   * Starts watching a fragment whose page is being destroyed.  Must be called before the
+   * fragment's view is destroyed.
+   */
+  void watch(int position, Fragment fragment) {
+    View view = fragment.getView();
+    mWatches.add(new Watch(position, fragment, view, view != null ? estimateBytes(view) : 0,
+                           SystemClock.uptimeMillis() + mCheckDelayMillis));
+    scheduleCheck(mCheckDelayMillis);
+  }
+
+  /**
+   * @return Reports of the fragments and views that were found to be retained and still
+   * haven't been collected, as of the last check
+   */
+  public List<LeakReport> getRetained() {
+    List<LeakReport> retained = new ArrayList<LeakReport>();
+    for (Watch watch : mWatches) {
+      if (watch.report != null) {
+        retained.add(watch.report);
+      }
+    }
+    return retained;
+  }
+
+  /**
+   * @return The estimated bytes retained by destroyed pages at the specified position, as of
+   * the last check
+   */
+  public long getEstimatedRetainedBytes(int position) {
+    long total = 0;
+    for (Watch watch : mWatches) {
+      if (watch.report != null && watch.position == position) {
+        total += watch.report.mEstimatedBytes;
+      }
+    }
+    return total;
+  }
+
+  /**
+   * Checks the watched fragments that are due right away instead of after the delay.
+   */
+  public void check() {
+    if (mWatches.isEmpty()) {
+      return;
+    }
+    Runtime.getRuntime().gc();
+    System.runFinalization();
+    Runtime.getRuntime().gc();
+    final long now = SystemClock.uptimeMillis();
+    long nextDue = Long.MAX_VALUE;
+    for (int i = mWatches.size() - 1; i >= 0; i--) {
+      Watch watch = mWatches.get(i);
+      Fragment fragment = watch.fragment.get();
+      View view = watch.view != null ? watch.view.get() : null;
+      if ((fragment == null && view == null) || (fragment != null && fragment.isAdded())) {
+        // Collected, or shown again.
+        mWatches.remove(i);
+      } else if (watch.report != null) {
+        watch.report = newReport(watch, fragment, view);
+      } else if (watch.due <= now) {
+        watch.report = newReport(watch, fragment, view);
+        if (mOnLeakListener != null) {
+          mOnLeakListener.onLeakSuspected(watch.report);
+        }
+      } else {
+        nextDue = Math.min(nextDue, watch.due);
+      }
+    }
+    if (nextDue != Long.MAX_VALUE) {
+      scheduleCheck(nextDue - now);
+    }
+  }
+
+  /**
+   * Stops watching and forgets all reports.
+   */
+  public void clear() {
+    mWatches.clear();
+    mHandler.removeCallbacks(mCheckRunnable);
+    mCheckScheduled = false;
+  }
+
+  private void scheduleCheck(long delayMillis) {
+    if (!mCheckScheduled) {
+      mCheckScheduled = true;
+      mHandler.postDelayed(mCheckRunnable, delayMillis);
+    }
+  }
+
+  private static LeakReport newReport(Watch watch, Fragment fragment, View view) {
+    return new LeakReport(watch.position, watch.fragmentClassName, fragment != null,
+                          view != null, view != null ? watch.estimatedBytes : 0);
+  }
+
+  /**
+   * Estimates the memory held by a view hierarchy from its number of views and the sizes of
+   * the bitmaps it draws.
+   */
+  static long estimateBytes(View view) {
+    long bytes = VIEW_BYTES + bitmapBytes(view.getBackground());
+    if (view instanceof ImageView) {
+      bytes += bitmapBytes(((ImageView) view).getDrawable());
+    }
+    if (view instanceof ViewGroup) {
+      ViewGroup group = (ViewGroup) view;
+      for (int i = 0; i < group.getChildCount(); i++) {
+        bytes += estimateBytes(group.getChildAt(i));
+      }
+    }
+    return bytes;
+  }
+
+  private static long bitmapBytes(Drawable drawable) {
+    if (drawable instanceof BitmapDrawable) {
+      Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+      if (bitmap != null && !bitmap.isRecycled()) {
+        return (long) bitmap.getRowBytes() * bitmap.getHeight();
+      }
+    }
+    return 0;
+  }
+
+  private static class Watch {
+    final int position;
+    final String fragmentClassName;
+    final WeakReference<Fragment> fragment;
+    final WeakReference<View> view;
+    final long estimatedBytes;
+    final long due;
+    LeakReport report;
+
+    Watch(int position, Fragment fragment, View view, long estimatedBytes, long due) {
+      this.position = position;
+      this.fragmentClassName = fragment.getClass().getName();
+      this.fragment = new WeakReference<Fragment>(fragment);
+      this.view = view != null ? new WeakReference<View>(view) : null;
+      this.estimatedBytes = estimatedBytes;
+      this.due = due;
+    }
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014 Jacob Tabak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tabak.fragmentswitcher;
+
+
+/**
+ * A fragment, or its view, that was still reachable after a {@link FragmentSwitcher}
+ * destroyed its page.
+ *
+ * @see LeakDetector
+ */
+public final class LeakReport {
+  final int mPosition;
+  final String mFragmentClassName;
+  final boolean mFragmentRetained;
+  final boolean mViewRetained;
+  final long mEstimatedBytes;
+
+  LeakReport(int position, String fragmentClassName, boolean fragmentRetained,
+             boolean viewRetained, long estimatedBytes) {
+    mPosition = position;
+    mFragmentClassName = fragmentClassName;
+    mFragmentRetained = fragmentRetained;
+    mViewRetained = viewRetained;
+    mEstimatedBytes = estimatedBytes;
+  }
+
+  /**
+   * @return The position of the destroyed page
+   */
+  public int getPosition() {
+    return mPosition;
+  }
+
+  public String getFragmentClassName() {
+    return mFragmentClassName;
+  }
+
+  /**
+   * @return Whether the fragment is still reachable.  The array adapters keep fragments on
+   * purpose, so this alone is not a leak with them.
+   */
+  public boolean isFragmentRetained() {
+    return mFragmentRetained;
+  }
+
+  /**
+   * @return Whether the view the fragment had when it was destroyed is still reachable,
+   * which is a leak, usually through a field of the fragment
+   */
+  public boolean isViewRetained() {
+    return mViewRetained;
+  }
+
+  /**
+   * @return A rough estimate of the bytes kept by the retained view hierarchy, counting the
+   * views and the bitmaps they draw, or 0 if the view isn't retained
+   */
+  public long getEstimatedBytes() {
+    return mEstimatedBytes;
+  }
+
+  @Override
+  public String toString() {
+    return "LeakReport{"
+           + "position=" + mPosition
+           + " fragmentClassName=" + mFragmentClassName
+           + " fragmentRetained=" + mFragmentRetained
+           + " viewRetained=" + mViewRetained
+           + " estimatedBytes=" + mEstimatedBytes + "}";
+  }
+}
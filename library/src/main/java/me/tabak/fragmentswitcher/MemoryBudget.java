@@ -0,0 +1,180 @@
+/*
+ * Copyright 2014 Jacob Tabak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tabak.fragmentswitcher;
+
+import java.util.ArrayList;
+
+
+/**
+ * One limit on the memory held for pages that aren't shown, shared by several
+ * {@link FragmentSwitcher}s, for example the panes of a tablet layout and the switchers
+ * nested in their pages.
+ *
+ * Two things are counted across all members: fragments kept for hidden pages, which are warm
+ * pages and fragments the adapter keeps detached, and the marshalled size of saved states
+ * held in memory.  When either is over its limit, the least recently used one of all members
+ * is released first, whichever switcher it belongs to.  Released fragments keep their saved
+ * state and released saved states are written to disk if the adapter has a spill directory.
+ * Saved states that can't be marshalled have no known size, so they are neither counted nor
+ * released.
+ *
+ * Only the library's adapters report what they hold, other adapters only contribute their
+ * warm pages.  A switcher is a member while it is attached to a window.  A budget must only
+ * be used on the main thread.
+ *
+ * @see FragmentSwitcher#setMemoryBudget(MemoryBudget)
+ */
+public class MemoryBudget {
+  /**
+   * No limit.
+   */
+  public static final int UNLIMITED = -1;
+
+  private final int mMaxRetainedFragments;
+  private final long mMaxStateBytes;
+  private final ArrayList<FragmentSwitcher> mMembers = new ArrayList<FragmentSwitcher>();
+  private boolean mEnforcing;
+
+  /**
+   * @param maxRetainedFragments Largest number of fragments kept for hidden pages, or
+   * {@link #UNLIMITED}
+   * @param maxStateBytes Largest total size of saved states kept in memory, or
+   * {@link #UNLIMITED}
+   */
+  public MemoryBudget(int maxRetainedFragments, long maxStateBytes) {
+    if (maxRetainedFragments < UNLIMITED) {
+      throw new IllegalArgumentException("maxRetainedFragments must be >= 0 or UNLIMITED, was "
+                                         + maxRetainedFragments);
+    }
+    if (maxStateBytes < UNLIMITED) {
+      throw new IllegalArgumentException("maxStateBytes must be >= 0 or UNLIMITED, was "
+                                         + maxStateBytes);
+    }
+    mMaxRetainedFragments = maxRetainedFragments;
+    mMaxStateBytes = maxStateBytes;
+  }
+
+  public int getMaxRetainedFragments() {
+    return mMaxRetainedFragments;
+  }
+
+  public long getMaxStateBytes() {
+    return mMaxStateBytes;
+  }
+
+  void join(FragmentSwitcher member) {
+    if (!mMembers.contains(member)) {
+      mMembers.add(member);
+    }
+    enforce();
+  }
+
+  void leave(FragmentSwitcher member) {
+    mMembers.remove(member);
+  }
+
+  /**
+   * Releases the least recently used fragments and saved states of all members until both
+   * totals are within the limits.
+   */
+  void enforce() {
+    if (mEnforcing) {
+      return;
+    }
+    mEnforcing = true;
+    try {
+      if (mMaxRetainedFragments != UNLIMITED) {
+        enforceRetainedFragments();
+      }
+      if (mMaxStateBytes != UNLIMITED) {
+        enforceStateBytes();
+      }
+    } finally {
+      mEnforcing = false;
+    }
+  }
+
+  private void enforceRetainedFragments() {
+    long total = getRetainedFragmentCount();
+    long lastOldest = -1;
+    while (total > mMaxRetainedFragments) {
+      FragmentSwitcher oldestMember = null;
+      long oldest = Long.MAX_VALUE;
+      for (FragmentSwitcher member : mMembers) {
+        final long use = member.getOldestRetainedFragmentUse();
+        if (use < oldest) {
+          oldest = use;
+          oldestMember = member;
+        }
+      }
+      if (oldestMember == null) {
+        return;
+      }
+      oldestMember.releaseOldestRetainedFragment();
+      final long newTotal = getRetainedFragmentCount();
+      // A warm page destroyed into an adapter that keeps it detached is still counted, but
+      // as more recently used, so every release makes progress one way or the other.
+      if (newTotal >= total && oldest <= lastOldest) {
+        return;
+      }
+      total = newTotal;
+      lastOldest = oldest;
+    }
+  }
+
+  private void enforceStateBytes() {
+    long total = getStateBytes();
+    while (total > mMaxStateBytes) {
+      FragmentSwitcher oldestMember = null;
+      long oldest = Long.MAX_VALUE;
+      for (FragmentSwitcher member : mMembers) {
+        final long use = member.getOldestStateUse();
+        if (use < oldest) {
+          oldest = use;
+          oldestMember = member;
+        }
+      }
+      if (oldestMember == null) {
+        // Nothing measurable is left.  States that can only be parceled aren't counted.
+        return;
+      }
+      oldestMember.releaseOldestState();
+      final long newTotal = getStateBytes();
+      // Only counted states are released, so this only stops an adapter that can't release.
+      if (newTotal >= total) {
+        return;
+      }
+      total = newTotal;
+    }
+  }
+
+  private long getRetainedFragmentCount() {
+    long total = 0;
+    for (FragmentSwitcher member : mMembers) {
+      total += member.getRetainedFragmentCount();
+    }
+    return total;
+  }
+
+  private long getStateBytes() {
+    long total = 0;
+    for (FragmentSwitcher member : mMembers) {
+      total += member.getStateBytes();
+    }
+    return total;
+  }
+}
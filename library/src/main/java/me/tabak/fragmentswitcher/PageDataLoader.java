@@ -0,0 +1,38 @@
+/*
+ * Copyright 2014 Jacob Tabak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tabak.fragmentswitcher;
+
+
+/**
+ * Loads the data of a page in the background, starting as soon as a switch to the page is
+ * requested instead of when its fragment is created, so that loading overlaps with the
+ * fragment transaction and view creation.
+ *
+ * @see FragmentSwitcher#setPageDataLoader(PageDataLoader)
+ * @see PageDataReceiver
+ */
+public interface PageDataLoader<D> {
+  /**
+   * Loads the data of the page at the specified position.  Called on a background thread,
+   * so it must not touch the adapter or any views.
+   *
+   * @param position Position of the page
+   * @return The page's data, which is passed to its fragment
+   * @throws Exception If the data can't be loaded; the error is passed to the fragment
+   */
+  public D loadPageData(int position) throws Exception;
+}
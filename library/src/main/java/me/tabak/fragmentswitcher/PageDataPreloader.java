@@ -0,0 +1,209 @@
+/*
+ * Copyright 2014 Jacob Tabak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tabak.fragmentswitcher;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.app.Fragment;
+import android.support.v4.util.SparseArrayCompat;
+import android.view.View;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+
+/**
+ * Runs a {@link PageDataLoader} for requested positions and hands each result to the
+ * fragment or view of its page, whichever of the two is ready last.  A result is delivered at most
+ * once.  Results that nobody has asked for yet are kept for a few positions.
+ *
+ * A load whose page has already been added belongs to that page, and keeps going when the
+ * adapter's data set changes.  Loads that no page is waiting for are dropped then, since
+ * their position may now belong to another page.
+ */
+final class PageDataPreloader {
+  private static final String TAG = "PageDataPreloader";
+  private static final int THREAD_COUNT = 2;
+  private static final int MAX_UNCLAIMED_RESULTS = 4;
+  private static ExecutorService sExecutor;
+
+  private final PageDataLoader<?> mLoader;
+  private final Executor mExecutor;
+  private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+  private final SparseArrayCompat<Load> mLoads = new SparseArrayCompat<Load>();
+  private long mCompletionCounter;
+
+  PageDataPreloader(PageDataLoader<?> loader, Executor executor) {
+    mLoader = loader;
+    mExecutor = executor != null ? executor : getDefaultExecutor();
+  }
+
+  /**
+   * Starts loading the data of the specified position unless it is already loading or
+   * loaded.  Must be called on the main thread.
+   */
+  void load(final int position) {
+    if (mLoads.get(position) != null) {
+      return;
+    }
+    final Load load = new Load();
+    mLoads.put(position, load);
+    mExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        Object result = null;
+        Exception error = null;
+        try {
+          result = mLoader.loadPageData(position);
+        } catch (Exception e) {
+          error = e;
+        }
+        final Object finalResult = result;
+        final Exception finalError = error;
+        mMainHandler.post(new Runnable() {
+          @Override
+          public void run() {
+            if (!load.cancelled) {
+              complete(position, load, finalResult, finalError);
+            }
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Hands the data of the specified position to the fragment or view that was just added for
+   * it, now if it is loaded, or when it is.  Starts loading it if nobody asked for it yet.
+   */
+  void deliver(int position, Object page) {
+    if (!(page instanceof PageDataReceiver)) {
+      return;
+    }
+    load(position);
+    Load load = mLoads.get(position);
+    if (load.done) {
+      mLoads.remove(position);
+      dispatch(page, load);
+    } else {
+      load.receiver = page;
+    }
+  }
+
+  /**
+   * Forgets every result and ignores the loads that are still running.
+   */
+  void clear() {
+    for (int i = 0; i < mLoads.size(); i++) {
+      mLoads.valueAt(i).cancelled = true;
+    }
+    mLoads.clear();
+  }
+
+  /**
+   * Forgets the loads and results that no page is waiting for, since positions may no longer
+   * mean the same pages.  Loads that a page is waiting for are still delivered to it.
+   */
+  void dataSetChanged() {
+    for (int i = 0; i < mLoads.size(); i++) {
+      Load load = mLoads.valueAt(i);
+      if (load.receiver == null) {
+        load.cancelled = true;
+      }
+    }
+    mLoads.clear();
+  }
+
+  private void complete(int position, Load load, Object result, Exception error) {
+    load.done = true;
+    load.result = result;
+    load.error = error;
+    load.completion = ++mCompletionCounter;
+    Object receiver = load.receiver;
+    load.receiver = null;
+    final boolean claimable = mLoads.get(position) == load;
+    if (receiver != null && isShown(receiver)) {
+      if (claimable) {
+        mLoads.remove(position);
+      }
+      dispatch(receiver, load);
+    } else if (claimable) {
+      dropOldestUnclaimedResult();
+    }
+  }
+
+  private void dropOldestUnclaimedResult() {
+    int count = 0;
+    int oldest = -1;
+    for (int i = 0; i < mLoads.size(); i++) {
+      Load load = mLoads.valueAt(i);
+      if (load.done) {
+        count++;
+        if (oldest < 0 || load.completion < mLoads.valueAt(oldest).completion) {
+          oldest = i;
+        }
+      }
+    }
+    if (count > MAX_UNCLAIMED_RESULTS) {
+      mLoads.removeAt(oldest);
+    }
+  }
+
+  private static boolean isShown(Object page) {
+    return page instanceof Fragment ? ((Fragment) page).isAdded()
+        : ((View) page).getParent() != null;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void dispatch(Object page, Load load) {
+    PageDataReceiver<Object> receiver = (PageDataReceiver<Object>) page;
+    if (load.error != null) {
+      receiver.onPageDataFailed(load.error);
+    } else {
+      receiver.onPageDataLoaded(load.result);
+    }
+  }
+
+  private static synchronized ExecutorService getDefaultExecutor() {
+    if (sExecutor == null) {
+      sExecutor = Executors.newFixedThreadPool(THREAD_COUNT, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          // Someone is waiting for this data, so only stay just below the main thread.
+          Thread thread = new Thread(runnable, TAG);
+          thread.setPriority(Thread.NORM_PRIORITY - 1);
+          return thread;
+        }
+      });
+    }
+    return sExecutor;
+  }
+
+  private static class Load {
+    /** Whether the result is ignored when the load completes. */
+    boolean cancelled;
+    boolean done;
+    Object result;
+    Exception error;
+    /** Order in which the load completed, used to drop the oldest unclaimed results. */
+    long completion;
+    /** Page waiting for the result, if it was added before the load completed. */
+    Object receiver;
+  }
+}
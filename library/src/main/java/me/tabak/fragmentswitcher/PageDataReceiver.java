@@ -0,0 +1,30 @@
+/*
+ * Copyright 2014 Jacob Tabak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tabak.fragmentswitcher;
+
+
+/**
+ * Implemented by fragments, or page views, that receive the data loaded for their page by a
+ * {@link PageDataLoader}.  Exactly one of the methods is called, on the main thread, once the
+ * page has been added and the data is ready.  If the data is ready first, that is right
+ * after the fragment's view has been created, or the view has been added.
+ */
+public interface PageDataReceiver<D> {
+  public void onPageDataLoaded(D data);
+
+  public void onPageDataFailed(Exception error);
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2014 Jacob Tabak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tabak.fragmentswitcher;
+
+import android.os.Bundle;
+import android.os.Parcelable;
+import android.support.v4.util.SparseArrayCompat;
+import android.support.v4.view.PagerAdapter;
+import android.util.SparseArray;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+
+/**
+ * A {@link android.support.v4.view.PagerAdapter} whose pages are plain views instead of
+ * fragments, for simple pages that don't need a fragment's lifecycle.  Switching pages adds
+ * and removes views directly, without any FragmentManager transaction.
+ *
+ * Like a ListAdapter, pages are created by {@link #getView(int, View, ViewGroup)}, which is
+ * passed a view of the same type that was removed earlier, when there is one, to rebind
+ * instead of inflating a new one.  A reused view is not reset first, so getView must fully
+ * rebind it, including anything the user can change such as text, checked state or scroll
+ * position.
+ *
+ * The view hierarchy state of a removed page is kept by position, and restored when the page
+ * is shown again and across instance state.  Only views with ids have their state saved.
+ * Subclasses that insert, remove or move pages call {@link #notifyItemRangeInserted(int, int)},
+ * {@link #notifyItemRangeRemoved(int, int)} or {@link #notifyItemMoved(int, int)} so that
+ * the state follows its page.
+ */
+@SuppressWarnings("UnusedDeclaration")
+public abstract class RecyclingViewPagerAdapter extends PagerAdapter {
+  private static final String KEY_POSITIONS = "positions";
+  private static final String KEY_STATE_PREFIX = "state";
+  private static final int DEFAULT_MAX_RECYCLED_VIEWS = 2;
+  private static final int POSITION_REMOVED = -1;
+  private final int mMaxRecycledViews;
+  private final SparseArray<ArrayList<View>> mRecycledViews = new SparseArray<ArrayList<View>>();
+  private final SparseArrayCompat<SparseArray<Parcelable>> mViewStates
+      = new SparseArrayCompat<SparseArray<Parcelable>>();
+  private final IdentityHashMap<View, Integer> mActivePositions
+      = new IdentityHashMap<View, Integer>();
+  private final IdentityHashMap<View, Integer> mActiveViewTypes
+      = new IdentityHashMap<View, Integer>();
+
+  public RecyclingViewPagerAdapter() {
+    this(DEFAULT_MAX_RECYCLED_VIEWS);
+  }
+
+  /**
+   * @param maxRecycledViews Largest number of removed views kept for each view type
+   */
+  public RecyclingViewPagerAdapter(int maxRecycledViews) {
+    if (maxRecycledViews < 0) {
+      throw new IllegalArgumentException("maxRecycledViews must be >= 0, was "
+                                         + maxRecycledViews);
+    }
+    mMaxRecycledViews = maxRecycledViews;
+  }
+
+  /**
+   * Returns the view of the page at the specified position.
+   *
+   * @param position Position of the page
+   * @param convertView A removed view of the page's type to reuse, or null.  It still holds
+   * whatever the page it last showed left in it, so it must be fully rebound.
+   * @param container The view the page will be added to
+   * @return The page's view, not attached to the container
+   */
+  public abstract View getView(int position, View convertView, ViewGroup container);
+
+  /**
+   * @return The type of view the page at the specified position uses.  Only views of the same
+   * type are passed to {@link #getView(int, View, ViewGroup)} for reuse.
+   */
+  public int getItemViewType(int position) {
+    return 0;
+  }
+
+  @Override
+  public Object instantiateItem(ViewGroup container, int position) {
+    final int viewType = getItemViewType(position);
+    View view = getView(position, takeRecycledView(viewType), container);
+    SparseArray<Parcelable> state = mViewStates.get(position);
+    if (state != null) {
+      mViewStates.remove(position);
+      view.restoreHierarchyState(state);
+    }
+    container.addView(view);
+    mActivePositions.put(view, position);
+    mActiveViewTypes.put(view, viewType);
+    return view;
+  }
+
+  @Override
+  public void destroyItem(ViewGroup container, int position, Object object) {
+    View view = (View) object;
+    Integer activePosition = mActivePositions.remove(view);
+    if (activePosition == null) {
+      mViewStates.put(position, saveViewState(view));
+    } else if (activePosition != POSITION_REMOVED) {
+      mViewStates.put(activePosition, saveViewState(view));
+    }
+    container.removeView(view);
+    Integer viewType = mActiveViewTypes.remove(view);
+    if (viewType != null) {
+      recycleView(viewType, view);
+    }
+  }
+
+  @Override
+  public boolean isViewFromObject(View view, Object object) {
+    return view == object;
+  }
+
+  @Override
+  public int getItemPosition(Object object) {
+    Integer position = mActivePositions.get(object);
+    return position == null || position == POSITION_REMOVED ? POSITION_NONE : position;
+  }
+
+  /**
+   * Moves saved view states and shown pages after an insertion, then notifies observers.
+   *
+   * @param positionStart Position of the first inserted item
+   * @param itemCount Number of inserted items
+   */
+  protected void notifyItemRangeInserted(int positionStart, int itemCount) {
+    SparsePositions.offset(mViewStates, positionStart, itemCount);
+    for (Map.Entry<View, Integer> entry : mActivePositions.entrySet()) {
+      final int position = entry.getValue();
+      if (position >= positionStart) {
+        entry.setValue(position + itemCount);
+      }
+    }
+    notifyDataSetChanged();
+  }
+
+  /**
+   * Drops the saved view states of removed items and moves the rest, then notifies observers.
+   * Shown pages of removed items are recycled without saving their state.
+   *
+   * @param positionStart Position of the first removed item
+   * @param itemCount Number of removed items
+   */
+  protected void notifyItemRangeRemoved(int positionStart, int itemCount) {
+    SparsePositions.offset(mViewStates, positionStart, -itemCount);
+    for (Map.Entry<View, Integer> entry : mActivePositions.entrySet()) {
+      final int position = entry.getValue();
+      if (position >= positionStart + itemCount) {
+        entry.setValue(position - itemCount);
+      } else if (position >= positionStart) {
+        entry.setValue(POSITION_REMOVED);
+      }
+    }
+    notifyDataSetChanged();
+  }
+
+  /**
+   * Moves the saved view state and shown page of an item along with it, then notifies
+   * observers.
+   *
+   * @param fromPosition Previous position of the item
+   * @param toPosition New position of the item
+   */
+  protected void notifyItemMoved(int fromPosition, int toPosition) {
+    if (fromPosition != toPosition) {
+      SparsePositions.move(mViewStates, fromPosition, toPosition);
+      for (Map.Entry<View, Integer> entry : mActivePositions.entrySet()) {
+        final int position = entry.getValue();
+        if (position == fromPosition) {
+          entry.setValue(toPosition);
+        } else if (fromPosition < toPosition && position > fromPosition && position <= toPosition) {
+          entry.setValue(position - 1);
+        } else if (toPosition < fromPosition && position >= toPosition && position < fromPosition) {
+          entry.setValue(position + 1);
+        }
+      }
+    }
+    notifyDataSetChanged();
+  }
+
+  @Override
+  public Parcelable saveState() {
+    // Pages that are still shown are saved as they are now.
+    for (Map.Entry<View, Integer> entry : mActivePositions.entrySet()) {
+      if (entry.getValue() != POSITION_REMOVED) {
+        mViewStates.put(entry.getValue(), saveViewState(entry.getKey()));
+      }
+    }
+    if (mViewStates.size() == 0) {
+      return null;
+    }
+    Bundle state = new Bundle();
+    int[] positions = new int[mViewStates.size()];
+    for (int i = 0; i < mViewStates.size(); i++) {
+      positions[i] = mViewStates.keyAt(i);
+      state.putSparseParcelableArray(KEY_STATE_PREFIX + positions[i], mViewStates.valueAt(i));
+    }
+    state.putIntArray(KEY_POSITIONS, positions);
+    return state;
+  }
+
+  @Override
+  public void restoreState(Parcelable state, ClassLoader loader) {
+    if (state == null) {
+      return;
+    }
+    Bundle bundle = (Bundle) state;
+    bundle.setClassLoader(loader);
+    int[] positions = bundle.getIntArray(KEY_POSITIONS);
+    mViewStates.clear();
+    if (positions != null) {
+      for (int position : positions) {
+        SparseArray<Parcelable> viewState
+            = bundle.getSparseParcelableArray(KEY_STATE_PREFIX + position);
+        if (viewState != null) {
+          mViewStates.put(position, viewState);
+        }
+      }
+    }
+  }
+
+  /**
+   * Drops the removed views kept for reuse, for example after the layouts they were inflated
+   * from changed.
+   */
+  public void clearRecycledViews() {
+    mRecycledViews.clear();
+  }
+
+  private View takeRecycledView(int viewType) {
+    ArrayList<View> views = mRecycledViews.get(viewType);
+    return views != null && !views.isEmpty() ? views.remove(views.size() - 1) : null;
+  }
+
+  private void recycleView(int viewType, View view) {
+    ArrayList<View> views = mRecycledViews.get(viewType);
+    if (views == null) {
+      views = new ArrayList<View>(mMaxRecycledViews);
+      mRecycledViews.put(viewType, views);
+    }
+    if (views.size() < mMaxRecycledViews) {
+      views.add(view);
+    }
+  }
+
+  private static SparseArray<Parcelable> saveViewState(View view) {
+    SparseArray<Parcelable> state = new SparseArray<Parcelable>();
+    view.saveHierarchyState(state);
+    return state;
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2014 Jacob Tabak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tabak.fragmentswitcher;
+
+
+/**
+ * Implemented by adapters that can hand part of their state to the adapter of the recreated
+ * activity as objects, instead of parceling it, when the activity is recreated for a
+ * configuration change.
+ *
+ * @see FragmentSwitcher#setStateRetainer(StateRetainer)
+ */
+public interface RetainableAdapter {
+  /**
+   * Returns state to pass as is to the adapter that replaces this one after a configuration
+   * change.  What is returned must be left out of the next {@link
+   * android.support.v4.view.PagerAdapter#saveState()}, which is called right after this.
+   * It must not reference the activity or its views.
+   */
+  public Object retainState();
+
+  /**
+   * Takes back the state returned by {@link #retainState()} of the adapter this one replaces.
+   * Called right after {@link android.support.v4.view.PagerAdapter#restoreState(
+   * android.os.Parcelable, ClassLoader)}.
+   */
+  public void restoreRetainedState(Object state);
+}
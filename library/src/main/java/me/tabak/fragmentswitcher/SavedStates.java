@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014 Jacob Tabak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tabak.fragmentswitcher;
+
+import android.os.Parcel;
+import android.support.v4.app.Fragment;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+
+/**
+ * Helpers for measuring, marshalling and storing {@link Fragment.SavedState}.
+ *
+ * Marshalled states are only meant to be read back by the same build of the app.
+ */
+final class SavedStates {
+  private SavedStates() {
+  }
+
+  static byte[] marshall(Fragment.SavedState state) {
+    Parcel parcel = Parcel.obtain();
+    try {
+      parcel.writeParcelable(state, 0);
+      return parcel.marshall();
+    } finally {
+      parcel.recycle();
+    }
+  }
+
+  static Fragment.SavedState unmarshall(byte[] bytes, ClassLoader loader) {
+    Parcel parcel = Parcel.obtain();
+    try {
+      parcel.unmarshall(bytes, 0, bytes.length);
+      parcel.setDataPosition(0);
+      return parcel.readParcelable(loader);
+    } finally {
+      parcel.recycle();
+    }
+  }
+
+  static void write(File file, byte[] bytes) throws IOException {
+    FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(bytes);
+    } finally {
+      out.close();
+    }
+  }
+
+  static byte[] read(File file) throws IOException {
+    FileInputStream in = new FileInputStream(file);
+    try {
+      byte[] bytes = new byte[(int) file.length()];
+      int offset = 0;
+      while (offset < bytes.length) {
+        int count = in.read(bytes, offset, bytes.length - offset);
+        if (count < 0) {
+          throw new IOException("Unexpected end of " + file);
+        }
+        offset += count;
+      }
+      return bytes;
+    } finally {
+      in.close();
+    }
+  }
+}
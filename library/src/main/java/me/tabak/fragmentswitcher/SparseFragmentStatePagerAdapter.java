@@ -0,0 +1,815 @@
+/*
+ * Copyright 2014 Jacob Tabak, adapted from FragmentStatePagerAdapter in the Android Support Library
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tabak.fragmentswitcher;
+
+import android.os.Bundle;
+import android.os.Parcelable;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentManager;
+import android.support.v4.app.FragmentTransaction;
+import android.support.v4.util.SparseArrayCompat;
+import android.support.v4.view.PagerAdapter;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+
+/**
+ * A {@link android.support.v4.app.FragmentStatePagerAdapter} that keeps the saved state of
+ * its fragments in a sparse array keyed by position, instead of a list that is padded up
+ * to the highest position visited.  Only positions that actually have state are saved and
+ * restored, which matters when there are thousands of positions and few are visited.
+ *
+ * Subclasses that insert, remove, move or replace items should call
+ * {@link #notifyItemRangeInserted}, {@link #notifyItemRangeRemoved}, {@link #notifyItemMoved}
+ * and {@link #notifyItemRangeChanged} so that saved state stays with the right items.
+ *
+ * The size of the state returned by {@link #saveState()} can be limited with
+ * {@link #setSavedStateBudget(int, java.io.File)}, and states can also be kept in a
+ * {@link me.tabak.fragmentswitcher.FragmentStateStore} that outlives the process with
+ * {@link #setStateStore(FragmentStateStore)}.
+ *
+ * When memory runs low, {@link #trimSavedStates(int, boolean)} writes saved states to the
+ * spill directory if there is one, and otherwise drops them.  Dropped states are read back
+ * from the state store, if one is set.
+ *
+ * Saved states are marshalled at most once, by {@link #saveState()} or when their size is
+ * needed, and only their bytes are kept after that, so saveState only marshals the states
+ * that changed since the last call.  States that hold binders or file descriptors can't be
+ * marshalled, and are parceled as they are instead.  Restored states stay marshalled until
+ * their position is instantiated, so restoring costs little however many positions have
+ * state.  Across configuration changes, the saved states can be handed to the recreated
+ * adapter without being parceled at all, see
+ * {@link me.tabak.fragmentswitcher.RetainableAdapter}.
+ */
+public abstract class SparseFragmentStatePagerAdapter extends PagerAdapter
+    implements TrimmableAdapter, BudgetedAdapter, RetainableAdapter {
+  /** Returned by {@link #getItemId(int)} for items whose state is not kept in the store. */
+  public static final long NO_ID = -1;
+  private static final String TAG = "SparseFragmentStatePagerAdapter";
+  private static final String KEY_STATE_POSITIONS = "positions";
+  private static final String KEY_STATES = "states";
+  private static final String KEY_STATE_LENGTHS = "lengths";
+  private static final String KEY_PARCELED_POSITIONS = "parceled_positions";
+  private static final String KEY_PARCELED_STATES = "parceled_states";
+  private static final String KEY_FRAGMENT_PREFIX = "f";
+  private static final String KEY_SPILLED_POSITIONS = "spilled_positions";
+  private static final String KEY_SPILL_IDS = "spill_ids";
+  private static final String KEY_SPILL_SESSION = "spill_session";
+  private static final long SPILL_FILE_MAX_AGE_MS = 7L * 24 * 60 * 60 * 1000;
+
+  private final FragmentManager mFragmentManager;
+  private FragmentTransaction mCurTransaction = null;
+
+  private final SparseArrayCompat<StateEntry> mSavedState = new SparseArrayCompat<StateEntry>();
+  private final SparseArrayCompat<Fragment> mFragments = new SparseArrayCompat<Fragment>();
+  private Fragment mCurrentPrimaryItem = null;
+  private ClassLoader mLoader = getClass().getClassLoader();
+
+  private int mStateBudget = -1;
+  private File mSpillDirectory;
+  private String mSpillSession;
+  private long mNextSpillId = 1;
+  private FragmentStateStore mStateStore;
+  /** Whether the saved states were retained, so the next saveState leaves them out. */
+  private boolean mStatesRetained;
+
+  public SparseFragmentStatePagerAdapter(FragmentManager fm) {
+    mFragmentManager = fm;
+  }
+
+  /**
+   * Return the Fragment associated with a specified position.
+   */
+  public abstract Fragment getItem(int position);
+
+  /**
+   * Return a unique identifier for the item at the given position.  It is used as the key
+   * of the item's state in the {@link FragmentStateStore}, so it must identify the same
+   * item across process restarts, and stay with the item when items are inserted, removed
+   * or moved.
+   *
+   * The default implementation returns {@link #NO_ID}, so no state is kept in the store.
+   *
+   * @param position Position within this adapter
+   * @return Unique identifier for the item at position, or {@link #NO_ID}
+   */
+  public long getItemId(int position) {
+    return NO_ID;
+  }
+
+  /**
+   * Also writes the state of every destroyed fragment to the specified store, and reads it
+   * from there when a position has no state in memory, such as after a cold start.  Only
+   * items that have an id, see {@link #getItemId(int)}, are kept in the store.
+   *
+   * @param store Store to use, or null to stop using one
+   */
+  public void setStateStore(FragmentStateStore store) {
+    mStateStore = store;
+  }
+
+  /**
+   * Limits the size of the state returned by {@link #saveState()}.  When the saved states
+   * of destroyed fragments add up to more than maxBytes, the least recently used ones are
+   * written to files in the specified directory, and only their positions are kept in the
+   * saved state.  They are read back when their position is instantiated again.
+   *
+   * The directory should be private to the app and only used by this adapter's spill
+   * files.  Files older than a week are deleted when the budget is set.
+   *
+   * @param maxBytes Largest total size of the saved states kept in memory, or -1 for no limit
+   * @param directory Directory for the saved states that don't fit
+   */
+  public void setSavedStateBudget(int maxBytes, File directory) {
+    if (maxBytes >= 0 && directory == null) {
+      throw new IllegalArgumentException("A directory is required to limit the saved state");
+    }
+    mStateBudget = maxBytes;
+    mSpillDirectory = directory;
+    if (directory != null) {
+      if (!directory.isDirectory() && !directory.mkdirs()) {
+        Log.w(TAG, "Unable to create " + directory);
+      }
+      deleteStaleSpillFiles();
+    }
+  }
+
+  @Override
+  public void startUpdate(ViewGroup container) {
+  }
+
+  @Override
+  public Object instantiateItem(ViewGroup container, int position) {
+    // If we already have this item instantiated, there is nothing
+    // to do.  This can happen when we are restoring the entire pager
+    // from its saved state, where the fragment manager has already
+    // taken care of restoring the fragments we previously had instantiated.
+    Fragment f = mFragments.get(position);
+    if (f != null) {
+      return f;
+    }
+
+    if (mCurTransaction == null) {
+      mCurTransaction = mFragmentManager.beginTransaction();
+    }
+
+    Fragment fragment = getItem(position);
+    Fragment.SavedState fss = loadState(position);
+    if (fss != null) {
+      fragment.setInitialSavedState(fss);
+    }
+    fragment.setMenuVisibility(false);
+    fragment.setUserVisibleHint(false);
+    mFragments.put(position, fragment);
+    mCurTransaction.add(container.getId(), fragment);
+
+    return fragment;
+  }
+
+  @Override
+  public void destroyItem(ViewGroup container, int position, Object object) {
+    Fragment fragment = (Fragment) object;
+
+    if (mCurTransaction == null) {
+      mCurTransaction = mFragmentManager.beginTransaction();
+    }
+    // Look the fragment up by identity: its position may have changed since it was
+    // instantiated, and it has no position at all if its item was removed.
+    final int index = mFragments.indexOfValue(fragment);
+    if (index >= 0) {
+      final int fragmentPosition = mFragments.keyAt(index);
+      Fragment.SavedState state = mFragmentManager.saveFragmentInstanceState(fragment);
+      storeState(fragmentPosition, state);
+      final long itemId = getItemId(fragmentPosition);
+      if (mStateStore != null && itemId != NO_ID) {
+        persistState(itemId, mSavedState.get(fragmentPosition));
+      }
+      mFragments.removeAt(index);
+    }
+    mCurTransaction.remove(fragment);
+  }
+
+  @Override
+  public void setPrimaryItem(ViewGroup container, int position, Object object) {
+    Fragment fragment = (Fragment) object;
+    if (fragment != mCurrentPrimaryItem) {
+      if (mCurrentPrimaryItem != null) {
+        mCurrentPrimaryItem.setMenuVisibility(false);
+        mCurrentPrimaryItem.setUserVisibleHint(false);
+      }
+      if (fragment != null) {
+        fragment.setMenuVisibility(true);
+        fragment.setUserVisibleHint(true);
+      }
+      mCurrentPrimaryItem = fragment;
+    }
+  }
+
+  @Override
+  public void finishUpdate(ViewGroup container) {
+    if (mCurTransaction != null) {
+      mCurTransaction.commitAllowingStateLoss();
+      mCurTransaction = null;
+      mFragmentManager.executePendingTransactions();
+    }
+  }
+
+  @Override
+  public boolean isViewFromObject(View view, Object object) {
+    return ((Fragment) object).getView() == view;
+  }
+
+  /**
+   * Moves saved state and instantiated fragments after an insertion, then notifies
+   * observers.
+   *
+   * @param positionStart Position of the first inserted item
+   * @param itemCount Number of inserted items
+   */
+  protected void notifyItemRangeInserted(int positionStart, int itemCount) {
+    SparsePositions.offset(mSavedState, positionStart, itemCount);
+    SparsePositions.offset(mFragments, positionStart, itemCount);
+    notifyDataSetChanged();
+  }
+
+  /**
+   * Drops the saved state of removed items and moves the rest, then notifies observers.
+   * Instantiated fragments of removed items are removed without saving their state when
+   * they are destroyed.  Their state in the store is removed with
+   * {@link #removeStoredState(long)}.
+   *
+   * @param positionStart Position of the first removed item
+   * @param itemCount Number of removed items
+   */
+  protected void notifyItemRangeRemoved(int positionStart, int itemCount) {
+    for (int i = 0; i < mSavedState.size(); i++) {
+      final int position = mSavedState.keyAt(i);
+      if (position >= positionStart && position < positionStart + itemCount) {
+        deleteSpillFile(mSavedState.valueAt(i));
+      }
+    }
+    SparsePositions.offset(mSavedState, positionStart, -itemCount);
+    SparsePositions.offset(mFragments, positionStart, -itemCount);
+    notifyDataSetChanged();
+  }
+
+  /**
+   * Moves the saved state and instantiated fragment of an item along with it, then notifies
+   * observers.
+   *
+   * @param fromPosition Previous position of the item
+   * @param toPosition New position of the item
+   */
+  protected void notifyItemMoved(int fromPosition, int toPosition) {
+    if (fromPosition != toPosition) {
+      SparsePositions.move(mSavedState, fromPosition, toPosition);
+      SparsePositions.move(mFragments, fromPosition, toPosition);
+    }
+    notifyDataSetChanged();
+  }
+
+  /**
+   * Drops the saved state of items that were replaced by new ones, then notifies observers.
+   * Instantiated fragments of replaced items are removed without saving their state when
+   * they are destroyed.  Their state in the store is removed with
+   * {@link #removeStoredState(long)}.
+   *
+   * @param positionStart Position of the first replaced item
+   * @param itemCount Number of replaced items
+   */
+  protected void notifyItemRangeChanged(int positionStart, int itemCount) {
+    for (int position = positionStart; position < positionStart + itemCount; position++) {
+      final int index = mSavedState.indexOfKey(position);
+      if (index >= 0) {
+        deleteSpillFile(mSavedState.valueAt(index));
+        mSavedState.removeAt(index);
+      }
+      mFragments.remove(position);
+    }
+    notifyDataSetChanged();
+  }
+
+  /**
+   * Removes the state stored for an item that was removed or replaced from the
+   * {@link FragmentStateStore}, if there is one.  Subclasses call this with the ids of the
+   * items they remove, since those ids are gone by the time observers are notified.
+   *
+   * @param itemId Id of the removed item
+   */
+  protected void removeStoredState(long itemId) {
+    if (mStateStore != null && itemId != NO_ID) {
+      mStateStore.remove(itemId);
+    }
+  }
+
+  /**
+   * Writes the state of an entry to the store, or removes it from the store if there is none.
+   * A {@link FileFragmentStateStore} is handed the entry's bytes, which are kept for
+   * {@link #saveState()} anyway, instead of marshalling the state a second time.
+   */
+  private void persistState(long itemId, StateEntry entry) {
+    if (entry == null) {
+      mStateStore.remove(itemId);
+    } else if (mStateStore instanceof FileFragmentStateStore) {
+      byte[] bytes = getBytes(entry);
+      if (bytes != null) {
+        ((FileFragmentStateStore) mStateStore).put(itemId, bytes);
+      } else {
+        mStateStore.remove(itemId);
+      }
+    } else {
+      mStateStore.put(itemId, entry.state);
+    }
+  }
+
+  private void storeState(int position, Fragment.SavedState state) {
+    StateEntry entry = mSavedState.get(position);
+    if (state == null) {
+      if (entry != null) {
+        deleteSpillFile(entry);
+        mSavedState.remove(position);
+      }
+      return;
+    }
+    if (entry == null) {
+      entry = new StateEntry();
+      mSavedState.put(position, entry);
+    } else {
+      deleteSpillFile(entry);
+    }
+    entry.state = state;
+    entry.bytes = null;
+    entry.parcelOnly = false;
+    entry.lastUsed = UseClock.tick();
+  }
+
+  /**
+   * Returns the saved state at the specified position, reading it back from its spill file
+   * if it was written to one, or from the state store if there is no state in memory.
+   */
+  private Fragment.SavedState loadState(int position) {
+    StateEntry entry = mSavedState.get(position);
+    if (entry == null) {
+      final long itemId = getItemId(position);
+      return mStateStore != null && itemId != NO_ID ? mStateStore.get(itemId, mLoader) : null;
+    }
+    if (entry.state == null && entry.spillId != 0) {
+      File file = getSpillFile(entry.spillId);
+      try {
+        byte[] bytes = SavedStates.read(file);
+        entry.state = SavedStates.unmarshall(bytes, mLoader);
+        entry.bytes = bytes;
+      } catch (IOException e) {
+        Log.w(TAG, "Unable to read saved state of position " + position, e);
+      } catch (RuntimeException e) {
+        Log.w(TAG, "Unable to unmarshall saved state of position " + position, e);
+      }
+      deleteSpillFile(entry);
+      if (entry.state == null) {
+        mSavedState.remove(position);
+        return null;
+      }
+    } else if (entry.state == null) {
+      // Marshalled states are only decoded when their position is instantiated.
+      try {
+        entry.state = SavedStates.unmarshall(entry.bytes, mLoader);
+      } catch (RuntimeException e) {
+        Log.w(TAG, "Unable to unmarshall saved state of position " + position, e);
+        mSavedState.remove(position);
+        return null;
+      }
+    }
+    entry.lastUsed = UseClock.tick();
+    Fragment.SavedState state = entry.state;
+    if (entry.bytes != null) {
+      // The fragment holds on to the decoded state, so only the bytes are kept here.
+      entry.state = null;
+    }
+    return state;
+  }
+
+  /**
+   * Writes the least recently used saved states to spill files until the ones left in
+   * memory fit in the budget.
+   */
+  private void spillColdStates() {
+    List<StateEntry> inMemory = new ArrayList<StateEntry>();
+    long total = 0;
+    for (int i = 0; i < mSavedState.size(); i++) {
+      StateEntry entry = mSavedState.valueAt(i);
+      if (isInMemory(entry) && getBytes(entry) != null) {
+        total += getBytes(entry).length;
+        inMemory.add(entry);
+      }
+    }
+    if (total <= mStateBudget) {
+      return;
+    }
+    Collections.sort(inMemory, new Comparator<StateEntry>() {
+      @Override
+      public int compare(StateEntry lhs, StateEntry rhs) {
+        return lhs.lastUsed < rhs.lastUsed ? -1 : (lhs.lastUsed == rhs.lastUsed ? 0 : 1);
+      }
+    });
+    for (StateEntry entry : inMemory) {
+      final int size = getBytes(entry).length;
+      if (total <= mStateBudget || !spill(entry)) {
+        break;
+      }
+      total -= size;
+    }
+  }
+
+  /**
+   * Writes a saved state to a spill file and lets go of it.
+   *
+   * @return Whether the state was written
+   */
+  private boolean spill(StateEntry entry) {
+    if (getBytes(entry) == null) {
+      return false;
+    }
+    final long spillId = mNextSpillId++;
+    try {
+      SavedStates.write(getSpillFile(spillId), getBytes(entry));
+    } catch (IOException e) {
+      Log.w(TAG, "Unable to write saved state to " + mSpillDirectory, e);
+      return false;
+    }
+    entry.spillId = spillId;
+    entry.state = null;
+    entry.bytes = null;
+    return true;
+  }
+
+  /**
+   * @return Whether the state of an entry is in memory, decoded or not
+   */
+  private static boolean isInMemory(StateEntry entry) {
+    return entry.state != null || entry.bytes != null;
+  }
+
+  /**
+   * Marshals the state of an entry if it changed, and lets go of the decoded state, which is
+   * decoded again when its position is instantiated.
+   *
+   * @return The marshalled state of an entry that is in memory, or null if the state holds
+   * binders or file descriptors and can only be parceled
+   */
+  private static byte[] getBytes(StateEntry entry) {
+    if (entry.bytes == null && !entry.parcelOnly) {
+      try {
+        entry.bytes = SavedStates.marshall(entry.state);
+        entry.state = null;
+      } catch (RuntimeException e) {
+        // Parcel.marshall refuses parcels that hold binders or file descriptors.
+        entry.parcelOnly = true;
+      }
+    }
+    return entry.bytes;
+  }
+
+  /**
+   * Only the fragments being shown are kept, so there is nothing to release.
+   */
+  @Override
+  public void trimFragments(int currentPosition, boolean all) {
+  }
+
+  @Override
+  public void trimSavedStates(int currentPosition, boolean all) {
+    int count = 0;
+    int[] positions = new int[mSavedState.size()];
+    for (int i = 0; i < mSavedState.size(); i++) {
+      final int position = mSavedState.keyAt(i);
+      if (position != currentPosition && isInMemory(mSavedState.valueAt(i))) {
+        positions[count++] = position;
+      }
+    }
+    TrimOrder.sortFarthestFirst(positions, count, currentPosition);
+    final int trimCount = TrimOrder.countToTrim(count, all);
+    for (int i = 0; i < trimCount; i++) {
+      releaseState(positions[i]);
+    }
+  }
+
+  /**
+   * Spills the saved state at the specified position if there is a spill directory, or
+   * drops it otherwise.
+   */
+  private void releaseState(int position) {
+    StateEntry entry = mSavedState.get(position);
+    if (mSpillDirectory == null || !spill(entry)) {
+      mSavedState.remove(position);
+    }
+  }
+
+  @Override
+  public int getRetainedFragmentCount() {
+    return 0;
+  }
+
+  @Override
+  public long getOldestRetainedFragmentUse() {
+    return Long.MAX_VALUE;
+  }
+
+  @Override
+  public void releaseOldestRetainedFragment() {
+  }
+
+  @Override
+  public long getStateBytes() {
+    long total = 0;
+    for (int i = 0; i < mSavedState.size(); i++) {
+      StateEntry entry = mSavedState.valueAt(i);
+      if (isInMemory(entry) && getBytes(entry) != null) {
+        total += getBytes(entry).length;
+      }
+    }
+    return total;
+  }
+
+  @Override
+  public long getOldestStateUse() {
+    final int index = indexOfOldestState();
+    return index >= 0 ? mSavedState.valueAt(index).lastUsed : Long.MAX_VALUE;
+  }
+
+  @Override
+  public void releaseOldestState() {
+    final int index = indexOfOldestState();
+    if (index >= 0) {
+      releaseState(mSavedState.keyAt(index));
+    }
+  }
+
+  /**
+   * Finds the least recently used state counted by {@link #getStateBytes()}.  States that can
+   * only be parceled have no known size, and releasing them would not bring the total down.
+   */
+  private int indexOfOldestState() {
+    int oldest = -1;
+    for (int i = 0; i < mSavedState.size(); i++) {
+      StateEntry entry = mSavedState.valueAt(i);
+      if (isInMemory(entry) && getBytes(entry) != null
+          && (oldest < 0 || entry.lastUsed < mSavedState.valueAt(oldest).lastUsed)) {
+        oldest = i;
+      }
+    }
+    return oldest;
+  }
+
+  private File getSpillFile(long spillId) {
+    if (mSpillSession == null) {
+      mSpillSession = UUID.randomUUID().toString();
+    }
+    return new File(mSpillDirectory, mSpillSession + "-" + spillId);
+  }
+
+  private void deleteSpillFile(StateEntry entry) {
+    if (entry.spillId != 0) {
+      if (mSpillDirectory != null) {
+        getSpillFile(entry.spillId).delete();
+      }
+      entry.spillId = 0;
+    }
+  }
+
+  /**
+   * Deletes spill files left behind by tasks that are long gone.
+   */
+  private void deleteStaleSpillFiles() {
+    File[] files = mSpillDirectory.listFiles();
+    if (files != null) {
+      final long cutoff = System.currentTimeMillis() - SPILL_FILE_MAX_AGE_MS;
+      for (File file : files) {
+        if (file.lastModified() < cutoff) {
+          file.delete();
+        }
+      }
+    }
+  }
+
+  @Override
+  public Object retainState() {
+    RetainedStates retained = new RetainedStates();
+    retained.savedState = new SparseArrayCompat<StateEntry>(mSavedState.size());
+    for (int i = 0; i < mSavedState.size(); i++) {
+      retained.savedState.append(mSavedState.keyAt(i), mSavedState.valueAt(i));
+    }
+    retained.spillSession = mSpillSession;
+    retained.nextSpillId = mNextSpillId;
+    mStatesRetained = true;
+    return retained;
+  }
+
+  @Override
+  public void restoreRetainedState(Object state) {
+    RetainedStates retained = (RetainedStates) state;
+    for (int i = 0; i < retained.savedState.size(); i++) {
+      mSavedState.put(retained.savedState.keyAt(i), retained.savedState.valueAt(i));
+    }
+    mSpillSession = retained.spillSession;
+    mNextSpillId = Math.max(mNextSpillId, retained.nextSpillId);
+  }
+
+  @Override
+  public Parcelable saveState() {
+    if (mStateBudget >= 0 && !mStatesRetained) {
+      spillColdStates();
+    }
+    Bundle state = null;
+    final int stateCount = mStatesRetained ? 0 : mSavedState.size();
+    mStatesRetained = false;
+    if (stateCount > 0) {
+      state = new Bundle();
+      int keptCount = 0;
+      int parceledCount = 0;
+      for (int i = 0; i < stateCount; i++) {
+        StateEntry entry = mSavedState.valueAt(i);
+        if (isInMemory(entry)) {
+          // Only states that changed since they were last marshalled are marshalled again.
+          if (getBytes(entry) != null) {
+            keptCount++;
+          } else {
+            parceledCount++;
+          }
+        }
+      }
+      final int spilledCount = stateCount - keptCount - parceledCount;
+      int[] positions = new int[keptCount];
+      byte[][] parts = new byte[keptCount][];
+      int[] parceledPositions = new int[parceledCount];
+      Fragment.SavedState[] parceledStates = new Fragment.SavedState[parceledCount];
+      int[] spilledPositions = new int[spilledCount];
+      long[] spillIds = new long[spilledCount];
+      for (int i = 0, kept = 0, parceled = 0, spilled = 0; i < stateCount; i++) {
+        StateEntry entry = mSavedState.valueAt(i);
+        if (!isInMemory(entry)) {
+          spilledPositions[spilled] = mSavedState.keyAt(i);
+          spillIds[spilled++] = entry.spillId;
+        } else if (entry.bytes != null) {
+          positions[kept] = mSavedState.keyAt(i);
+          parts[kept++] = entry.bytes;
+        } else {
+          parceledPositions[parceled] = mSavedState.keyAt(i);
+          parceledStates[parceled++] = entry.state;
+        }
+      }
+      pack(state, positions, parts);
+      if (parceledCount > 0) {
+        state.putIntArray(KEY_PARCELED_POSITIONS, parceledPositions);
+        state.putParcelableArray(KEY_PARCELED_STATES, parceledStates);
+      }
+      if (spilledCount > 0) {
+        state.putIntArray(KEY_SPILLED_POSITIONS, spilledPositions);
+        state.putLongArray(KEY_SPILL_IDS, spillIds);
+        state.putString(KEY_SPILL_SESSION, mSpillSession);
+      }
+    }
+    for (int i = 0; i < mFragments.size(); i++) {
+      Fragment f = mFragments.valueAt(i);
+      if (f != null) {
+        if (state == null) {
+          state = new Bundle();
+        }
+        String key = KEY_FRAGMENT_PREFIX + mFragments.keyAt(i);
+        mFragmentManager.putFragment(state, key, f);
+      }
+    }
+    return state;
+  }
+
+  @Override
+  public void restoreState(Parcelable state, ClassLoader loader) {
+    if (state != null) {
+      Bundle bundle = (Bundle) state;
+      bundle.setClassLoader(loader);
+      if (loader != null) {
+        mLoader = loader;
+      }
+      int[] positions = bundle.getIntArray(KEY_STATE_POSITIONS);
+      int[] lengths = bundle.getIntArray(KEY_STATE_LENGTHS);
+      Object states = bundle.get(KEY_STATES);
+      mSavedState.clear();
+      mFragments.clear();
+      if (positions != null && lengths != null && states instanceof byte[]) {
+        // The states stay marshalled until their position is instantiated.
+        byte[] packed = (byte[]) states;
+        for (int i = 0, offset = 0; i < positions.length; offset += lengths[i++]) {
+          StateEntry entry = new StateEntry();
+          entry.bytes = new byte[lengths[i]];
+          System.arraycopy(packed, offset, entry.bytes, 0, lengths[i]);
+          mSavedState.put(positions[i], entry);
+        }
+      } else if (states instanceof Parcelable[]) {
+        // Saved by FragmentStatePagerAdapter, which the array adapters used to extend: one
+        // state per position, null for positions that were never visited.
+        Parcelable[] legacyStates = (Parcelable[]) states;
+        for (int i = 0; i < legacyStates.length; i++) {
+          if (legacyStates[i] != null) {
+            StateEntry entry = new StateEntry();
+            entry.state = (Fragment.SavedState) legacyStates[i];
+            mSavedState.put(i, entry);
+          }
+        }
+      }
+      int[] parceledPositions = bundle.getIntArray(KEY_PARCELED_POSITIONS);
+      Parcelable[] parceledStates = bundle.getParcelableArray(KEY_PARCELED_STATES);
+      if (parceledPositions != null && parceledStates != null) {
+        for (int i = 0; i < parceledPositions.length; i++) {
+          StateEntry entry = new StateEntry();
+          entry.state = (Fragment.SavedState) parceledStates[i];
+          entry.parcelOnly = true;
+          mSavedState.put(parceledPositions[i], entry);
+        }
+      }
+      int[] spilledPositions = bundle.getIntArray(KEY_SPILLED_POSITIONS);
+      long[] spillIds = bundle.getLongArray(KEY_SPILL_IDS);
+      if (spilledPositions != null && spillIds != null) {
+        mSpillSession = bundle.getString(KEY_SPILL_SESSION);
+        for (int i = 0; i < spilledPositions.length; i++) {
+          StateEntry entry = new StateEntry();
+          entry.spillId = spillIds[i];
+          mSavedState.put(spilledPositions[i], entry);
+          mNextSpillId = Math.max(mNextSpillId, spillIds[i] + 1);
+        }
+      }
+      Iterable<String> keys = bundle.keySet();
+      for (String key : keys) {
+        if (key.startsWith(KEY_FRAGMENT_PREFIX)) {
+          int index = Integer.parseInt(key.substring(KEY_FRAGMENT_PREFIX.length()));
+          Fragment f = mFragmentManager.getFragment(bundle, key);
+          if (f != null) {
+            f.setMenuVisibility(false);
+            mFragments.put(index, f);
+          } else {
+            Log.w(TAG, "Bad fragment at key " + key);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Packs the marshalled states into one array for the saved state.  The packed copy is not
+   * kept, so each state is only held by its entry between calls.
+   */
+  private static void pack(Bundle state, int[] positions, byte[][] parts) {
+    int[] lengths = new int[parts.length];
+    int total = 0;
+    for (int i = 0; i < parts.length; i++) {
+      lengths[i] = parts[i].length;
+      total += lengths[i];
+    }
+    byte[] packed = new byte[total];
+    for (int i = 0, offset = 0; i < parts.length; offset += lengths[i++]) {
+      System.arraycopy(parts[i], 0, packed, offset, lengths[i]);
+    }
+    state.putIntArray(KEY_STATE_POSITIONS, positions);
+    state.putIntArray(KEY_STATE_LENGTHS, lengths);
+    state.putByteArray(KEY_STATES, packed);
+  }
+
+  private static class RetainedStates {
+    SparseArrayCompat<StateEntry> savedState;
+    String spillSession;
+    long nextSpillId;
+  }
+
+  private static class StateEntry {
+    /** The decoded saved state, or null if it is only kept marshalled or in a spill file. */
+    Fragment.SavedState state;
+    /** The marshalled state, or null if it changed since it was last marshalled. */
+    byte[] bytes;
+    /** Whether the state can't be marshalled, and is only ever kept and saved as it is. */
+    boolean parcelOnly;
+    /** Id of the spill file holding the state, or 0 if there is none. */
+    long spillId;
+    long lastUsed;
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 Jacob Tabak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tabak.fragmentswitcher;
+
+import android.support.v4.util.SparseArrayCompat;
+
+
+/**
+ * Helpers for moving position keyed state along with the items of an adapter.
+ */
+final class SparsePositions {
+  private SparsePositions() {
+  }
+
+  /**
+   * Adds offset to every key at or after positionStart.  A negative offset drops the keys
+   * in [positionStart, positionStart - offset).
+   */
+  static <E> void offset(SparseArrayCompat<E> array, int positionStart, int offset) {
+    final int size = array.size();
+    int first = 0;
+    while (first < size && array.keyAt(first) < positionStart) {
+      first++;
+    }
+    if (first == size) {
+      return;
+    }
+    int[] keys = new int[size - first];
+    Object[] values = new Object[size - first];
+    for (int i = first; i < size; i++) {
+      keys[i - first] = array.keyAt(i);
+      values[i - first] = array.valueAt(i);
+    }
+    for (int i = size - 1; i >= first; i--) {
+      array.removeAt(i);
+    }
+    for (int i = 0; i < keys.length; i++) {
+      if (offset < 0 && keys[i] < positionStart - offset) {
+        continue;
+      }
+      @SuppressWarnings("unchecked")
+      E value = (E) values[i];
+      array.put(keys[i] + offset, value);
+    }
+  }
+
+  /**
+   * Moves the key fromPosition to toPosition, and shifts the keys in between by one.
+   */
+  static <E> void move(SparseArrayCompat<E> array, int fromPosition, int toPosition) {
+    E value = array.get(fromPosition);
+    offset(array, fromPosition, -1);
+    offset(array, toPosition, 1);
+    if (value != null) {
+      array.put(toPosition, value);
+    }
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014 Jacob Tabak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tabak.fragmentswitcher;
+
+import android.os.Build;
+import android.os.Bundle;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentActivity;
+import android.support.v4.app.FragmentManager;
+import android.util.SparseArray;
+
+
+/**
+ * A headless fragment, retained across configuration changes, that carries the state of
+ * {@link FragmentSwitcher} adapters to the recreated activity as objects instead of through
+ * a Parcel.  States are keyed by the switcher's id, and states nobody took back are dropped
+ * once the recreated activity resumes.
+ *
+ * Retention only happens on Android 3.0 and up, where configuration changes can be told apart
+ * from the activity being stopped for good.  In every other case states go through instance
+ * state as usual, so they survive the process being killed.
+ *
+ * @see FragmentSwitcher#setStateRetainer(StateRetainer)
+ */
+public class StateRetainer extends Fragment {
+  private static final String TAG = "me.tabak.fragmentswitcher.StateRetainer";
+  private final SparseArray<Object> mStates = new SparseArray<Object>();
+
+  /**
+   * Returns the retainer of the specified FragmentManager, adding it if there is none yet.
+   * Call this from the activity's onCreate.
+   */
+  public static StateRetainer from(FragmentManager fm) {
+    StateRetainer retainer = (StateRetainer) fm.findFragmentByTag(TAG);
+    if (retainer == null) {
+      retainer = new StateRetainer();
+      fm.beginTransaction().add(retainer, TAG).commit();
+      fm.executePendingTransactions();
+    }
+    return retainer;
+  }
+
+  @Override
+  public void onCreate(Bundle savedInstanceState) {
+    super.onCreate(savedInstanceState);
+    setRetainInstance(true);
+  }
+
+  @Override
+  public void onResume() {
+    super.onResume();
+    // Switchers have restored their state by now.
+    mStates.clear();
+  }
+
+  /**
+   * @return Whether the activity is being stopped to be recreated for a configuration change
+   */
+  boolean isChangingConfigurations() {
+    FragmentActivity activity = getActivity();
+    return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB && activity != null
+        && activity.isChangingConfigurations();
+  }
+
+  void put(int switcherId, Object state) {
+    mStates.put(switcherId, state);
+  }
+
+  /**
+   * @return The state retained for the specified switcher, or null if there is none
+   */
+  Object take(int switcherId) {
+    Object state = mStates.get(switcherId);
+    mStates.remove(switcherId);
+    return state;
+  }
+}
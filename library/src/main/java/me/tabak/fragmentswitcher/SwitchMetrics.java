@@ -0,0 +1,99 @@
+/*
+ * Copyright 2014 Jacob Tabak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tabak.fragmentswitcher;
+
+
+/**
+ * How long each phase of a page switch took in a
+ * {@link me.tabak.fragmentswitcher.FragmentSwitcher}.  All durations are in nanoseconds.
+ *
+ * @see FragmentSwitcher#setOnSwitchMetricsListener(FragmentSwitcher.OnSwitchMetricsListener)
+ */
+public final class SwitchMetrics {
+  int mPosition;
+  int mPreviousPosition;
+  long mDestroyNanos;
+  long mInstantiateNanos;
+  long mCommitNanos;
+  long mFirstLayoutNanos = -1;
+
+  SwitchMetrics() {
+  }
+
+  /**
+   * @return The position that was switched to
+   */
+  public int getPosition() {
+    return mPosition;
+  }
+
+  /**
+   * @return The position that was switched from, or -1 if there was no page
+   */
+  public int getPreviousPosition() {
+    return mPreviousPosition;
+  }
+
+  /**
+   * @return Time spent releasing the outgoing page through the adapter's destroyItem
+   */
+  public long getDestroyNanos() {
+    return mDestroyNanos;
+  }
+
+  /**
+   * @return Time spent in the adapter's instantiateItem for the incoming page
+   */
+  public long getInstantiateNanos() {
+    return mInstantiateNanos;
+  }
+
+  /**
+   * @return Time spent in setPrimaryItem and finishUpdate, which commits and executes
+   * the fragment transaction, including creating the incoming fragment's view
+   */
+  public long getCommitNanos() {
+    return mCommitNanos;
+  }
+
+  /**
+   * @return Time from the end of the commit until the switcher finished its next layout,
+   * or -1 if the page changed again before a layout happened
+   */
+  public long getFirstLayoutNanos() {
+    return mFirstLayoutNanos;
+  }
+
+  /**
+   * @return Time from the start of the switch until the end of the first layout, or until
+   * the end of the commit if there was no layout
+   */
+  public long getTotalNanos() {
+    return mDestroyNanos + mInstantiateNanos + mCommitNanos + Math.max(0, mFirstLayoutNanos);
+  }
+
+  @Override
+  public String toString() {
+    return "SwitchMetrics{"
+           + "position=" + mPosition
+           + " previousPosition=" + mPreviousPosition
+           + " destroyNanos=" + mDestroyNanos
+           + " instantiateNanos=" + mInstantiateNanos
+           + " commitNanos=" + mCommitNanos
+           + " firstLayoutNanos=" + mFirstLayoutNanos + "}";
+  }
+}
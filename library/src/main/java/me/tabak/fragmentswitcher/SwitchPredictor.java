@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014 Jacob Tabak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tabak.fragmentswitcher;
+
+import android.support.v4.util.SparseArrayCompat;
+import android.util.SparseIntArray;
+
+
+/**
+ * Learns which page tends to be shown after which, from the switches it is told about, and
+ * predicts the most likely next pages.
+ *
+ * It keeps a first-order transition table: for every page switched away from, how often
+ * each other page was switched to.  A row is halved when its counts grow large, so recent
+ * habits outweigh old ones.  Pages are identified by position, so {@link FragmentSwitcher}
+ * calls {@link #clear()} whenever its adapter's data set changes.
+ *
+ * @see FragmentSwitcher#setSwitchPredictor(SwitchPredictor, int)
+ */
+public class SwitchPredictor {
+  private static final int MAX_ROW_TOTAL = 256;
+
+  private final SparseArrayCompat<SparseIntArray> mTransitions
+      = new SparseArrayCompat<SparseIntArray>();
+  private final SparseIntArray mRowTotals = new SparseIntArray();
+
+  /**
+   * Records a switch from one page to another.
+   */
+  public void recordSwitch(int fromPosition, int toPosition) {
+    if (fromPosition == toPosition) {
+      return;
+    }
+    SparseIntArray row = mTransitions.get(fromPosition);
+    if (row == null) {
+      row = new SparseIntArray();
+      mTransitions.put(fromPosition, row);
+    }
+    row.put(toPosition, row.get(toPosition) + 1);
+    int total = mRowTotals.get(fromPosition) + 1;
+    if (total > MAX_ROW_TOTAL) {
+      total = age(row);
+    }
+    mRowTotals.put(fromPosition, total);
+  }
+
+  /**
+   * Fills predictions with the pages most likely to be switched to from the specified page,
+   * most likely first.
+   *
+   * @param fromPosition Page that is shown
+   * @param predictions Array to fill, whose length is the most predictions wanted
+   * @return The number of predictions written, which is 0 when nothing is known
+   */
+  public int predict(int fromPosition, int[] predictions) {
+    SparseIntArray row = mTransitions.get(fromPosition);
+    if (row == null) {
+      return 0;
+    }
+    // Rows are short and few predictions are wanted, so a selection pass per slot is enough.
+    int count = 0;
+    while (count < predictions.length) {
+      int best = -1;
+      int bestCount = 0;
+      for (int i = 0; i < row.size(); i++) {
+        final int position = row.keyAt(i);
+        if (row.valueAt(i) > bestCount && !contains(predictions, count, position)) {
+          best = position;
+          bestCount = row.valueAt(i);
+        }
+      }
+      if (best < 0) {
+        break;
+      }
+      predictions[count++] = best;
+    }
+    return count;
+  }
+
+  /**
+   * Forgets every recorded switch.
+   */
+  public void clear() {
+    mTransitions.clear();
+    mRowTotals.clear();
+  }
+
+  /**
+   * Halves every count in the row, dropping the ones that reach zero.
+   *
+   * @return The new total of the row
+   */
+  private static int age(SparseIntArray row) {
+    int total = 0;
+    for (int i = row.size() - 1; i >= 0; i--) {
+      final int count = row.valueAt(i) / 2;
+      if (count == 0) {
+        row.delete(row.keyAt(i));
+      } else {
+        row.put(row.keyAt(i), count);
+        total += count;
+      }
+    }
+    return total;
+  }
+
+  private static boolean contains(int[] array, int length, int value) {
+    for (int i = 0; i < length; i++) {
+      if (array[i] == value) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
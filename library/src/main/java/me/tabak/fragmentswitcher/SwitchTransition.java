@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014 Jacob Tabak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tabak.fragmentswitcher;
+
+import android.view.animation.AccelerateInterpolator;
+import android.view.animation.AlphaAnimation;
+import android.view.animation.Animation;
+import android.view.animation.DecelerateInterpolator;
+import android.view.animation.TranslateAnimation;
+
+
+/**
+ * Creates the animations {@link FragmentSwitcher} runs on the outgoing and incoming pages of
+ * a switch.  The outgoing page animates out first, the switch is committed on the next frame,
+ * and the incoming page animates in on the frame after that, so neither animation shares a
+ * frame with inflating the incoming page.  Both pages are drawn from hardware layers while
+ * they animate.
+ *
+ * @see FragmentSwitcher#setSwitchTransition(SwitchTransition)
+ */
+public abstract class SwitchTransition {
+  /**
+   * @param forward Whether the incoming page comes after the outgoing one in the adapter
+   * @return The animation of the outgoing page
+   */
+  public abstract Animation createExitAnimation(boolean forward);
+
+  /**
+   * @param forward Whether the incoming page comes after the outgoing one in the adapter
+   * @return The animation of the incoming page
+   */
+  public abstract Animation createEnterAnimation(boolean forward);
+
+  /**
+   * @param durationMillis Duration of each of the two animations
+   * @return A transition that fades the outgoing page out and the incoming page in
+   */
+  public static SwitchTransition fade(long durationMillis) {
+    return new FadeTransition(durationMillis);
+  }
+
+  /**
+   * @param durationMillis Duration of each of the two animations
+   * @return A transition that slides the outgoing page out and the incoming page in, towards
+   * the start when moving forward in the adapter and towards the end otherwise
+   */
+  public static SwitchTransition slide(long durationMillis) {
+    return new SlideTransition(durationMillis);
+  }
+
+  private static class FadeTransition extends SwitchTransition {
+    private final long mDuration;
+
+    FadeTransition(long duration) {
+      mDuration = duration;
+    }
+
+    @Override
+    public Animation createExitAnimation(boolean forward) {
+      Animation animation = new AlphaAnimation(1f, 0f);
+      animation.setDuration(mDuration);
+      animation.setInterpolator(new AccelerateInterpolator());
+      return animation;
+    }
+
+    @Override
+    public Animation createEnterAnimation(boolean forward) {
+      Animation animation = new AlphaAnimation(0f, 1f);
+      animation.setDuration(mDuration);
+      animation.setInterpolator(new DecelerateInterpolator());
+      return animation;
+    }
+  }
+
+  private static class SlideTransition extends SwitchTransition {
+    private final long mDuration;
+
+    SlideTransition(long duration) {
+      mDuration = duration;
+    }
+
+    @Override
+    public Animation createExitAnimation(boolean forward) {
+      Animation animation = new TranslateAnimation(
+          Animation.RELATIVE_TO_SELF, 0f, Animation.RELATIVE_TO_SELF, forward ? -1f : 1f,
+          Animation.RELATIVE_TO_SELF, 0f, Animation.RELATIVE_TO_SELF, 0f);
+      animation.setDuration(mDuration);
+      animation.setInterpolator(new AccelerateInterpolator());
+      return animation;
+    }
+
+    @Override
+    public Animation createEnterAnimation(boolean forward) {
+      Animation animation = new TranslateAnimation(
+          Animation.RELATIVE_TO_SELF, forward ? 1f : -1f, Animation.RELATIVE_TO_SELF, 0f,
+          Animation.RELATIVE_TO_SELF, 0f, Animation.RELATIVE_TO_SELF, 0f);
+      animation.setDuration(mDuration);
+      animation.setInterpolator(new DecelerateInterpolator());
+      return animation;
+    }
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2014 Jacob Tabak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tabak.fragmentswitcher;
+
+import android.os.Build;
+import android.os.Trace;
+
+
+/**
+ * Emits {@link android.os.Trace} sections on versions that support them.
+ */
+final class Traces {
+  private static final boolean ENABLED
+      = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+  private Traces() {
+  }
+
+  static void beginSection(String sectionName) {
+    if (ENABLED) {
+      Trace.beginSection(sectionName);
+    }
+  }
+
+  static void endSection() {
+    if (ENABLED) {
+      Trace.endSection();
+    }
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2014 Jacob Tabak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tabak.fragmentswitcher;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+
+
+/**
+ * Forwards memory trim callbacks to a {@link FragmentSwitcher}.  Kept out of FragmentSwitcher
+ * because ComponentCallbacks2 only exists on API 14 and later.
+ */
+final class TrimMemoryCallbacks implements ComponentCallbacks2 {
+  private final FragmentSwitcher mSwitcher;
+
+  TrimMemoryCallbacks(FragmentSwitcher switcher) {
+    mSwitcher = switcher;
+  }
+
+  @Override
+  public void onTrimMemory(int level) {
+    mSwitcher.trimMemory(level);
+  }
+
+  @Override
+  public void onLowMemory() {
+    mSwitcher.trimMemory(TRIM_MEMORY_COMPLETE);
+  }
+
+  @Override
+  public void onConfigurationChanged(Configuration newConfig) {
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2014 Jacob Tabak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tabak.fragmentswitcher;
+
+import java.util.Arrays;
+
+
+/**
+ * Helpers that decide which positions a {@link TrimmableAdapter} releases.
+ */
+final class TrimOrder {
+  private TrimOrder() {
+  }
+
+  /**
+   * Returns the number of entries to release out of size.
+   */
+  static int countToTrim(int size, boolean all) {
+    return all ? size : (size + 1) / 2;
+  }
+
+  /**
+   * Sorts the first count positions in place so that the ones farthest from currentPosition
+   * come first.
+   */
+  static void sortFarthestFirst(int[] positions, int count, int currentPosition) {
+    // Sort by distance in the high bits, keeping the position in the low bits.
+    long[] keyed = new long[count];
+    for (int i = 0; i < count; i++) {
+      final long distance = Math.abs((long) positions[i] - currentPosition);
+      keyed[i] = (distance << 32) | (positions[i] & 0xffffffffL);
+    }
+    Arrays.sort(keyed);
+    for (int i = 0; i < count; i++) {
+      positions[i] = (int) keyed[count - 1 - i];
+    }
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2014 Jacob Tabak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tabak.fragmentswitcher;
+
+
+/**
+ * Implemented by adapters that can give back memory when the system runs low on it.
+ * {@link FragmentSwitcher} calls these methods from
+ * {@link android.content.ComponentCallbacks2#onTrimMemory(int)} at the levels set with
+ * {@link FragmentSwitcher#setTrimMemoryLevels(int, int)}.
+ *
+ * Both methods release what belongs to the positions farthest from the current one first.
+ * When all is false they release about half of what they hold, so repeated calls shed
+ * progressively more.
+ */
+public interface TrimmableAdapter {
+  /**
+   * Releases fragments that are kept for positions other than the current one, such as
+   * detached fragments, keeping their saved state.
+   *
+   * @param currentPosition Position that is shown
+   * @param all Whether to release all of them or only the farther half
+   */
+  public void trimFragments(int currentPosition, boolean all);
+
+  /**
+   * Releases saved states of positions other than the current one that are held in memory,
+   * by writing them to disk where possible and dropping them otherwise.
+   *
+   * @param currentPosition Position that is shown
+   * @param all Whether to release all of them or only the farther half
+   */
+  public void trimSavedStates(int currentPosition, boolean all);
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2014 Jacob Tabak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.tabak.fragmentswitcher;
+
+
+/**
+ * A process-wide counter that orders uses of fragments and saved states, so that what was
+ * used least recently can be found across several switchers and adapters.  Main thread only.
+ */
+final class UseClock {
+  private static long sLastUse;
+
+  private UseClock() {
+  }
+
+  /**
+   * @return A value greater than every value returned before
+   */
+  static long tick() {
+    return ++sLastUse;
+  }
+}
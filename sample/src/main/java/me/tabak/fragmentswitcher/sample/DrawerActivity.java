@@ -18,9 +18,9 @@ package me.tabak.fragmentswitcher.sample;
 
 import android.os.Bundle;
 import android.support.v4.app.ActionBarDrawerToggle;
-import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentActivity;
 import android.support.v4.widget.DrawerLayout;
+import android.util.Log;
 import android.view.Gravity;
 import android.view.MenuItem;
 import android.view.View;
@@ -31,16 +31,24 @@ import android.widget.ListView;
 import java.util.ArrayList;
 import java.util.List;
 
-import me.tabak.fragmentswitcher.FragmentStateArrayPagerAdapter;
+import me.tabak.fragmentswitcher.FragmentFactory;
+import me.tabak.fragmentswitcher.FragmentStateFactoryPagerAdapter;
 import me.tabak.fragmentswitcher.FragmentSwitcher;
+import me.tabak.fragmentswitcher.LeakDetector;
+import me.tabak.fragmentswitcher.LeakReport;
+import me.tabak.fragmentswitcher.StateRetainer;
+import me.tabak.fragmentswitcher.SwitchPredictor;
+import me.tabak.fragmentswitcher.SwitchTransition;
 
 public class DrawerActivity extends FragmentActivity {
+  private static final String TAG = "DrawerActivity";
   private ListView mListView;
   private FragmentSwitcher mFragmentSwitcher;
   private ArrayAdapter<String> mListAdapter;
-  private FragmentStateArrayPagerAdapter mFragmentAdapter;
+  private FragmentStateFactoryPagerAdapter<SampleFragment> mFragmentAdapter;
   private ActionBarDrawerToggle mDrawerToggle;
   private DrawerLayout mDrawerLayout;
+  private int mPendingPosition = -1;
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
@@ -53,11 +61,30 @@ public class DrawerActivity extends FragmentActivity {
   }
 
   /**
-   * Initializes the fragment switcher.  It works just like a viewpager.
+   * Initializes the fragment switcher.  It works just like a viewpager.  The page most often
+   * visited after the current one is instantiated ahead of time, and pages fade out and in
+   * when switching.  The saved states of visited pages stay in memory when the device is
+   * rotated.  Debug builds log fragments that are still reachable after their page was
+   * destroyed.
    */
   private void initializeFragmentSwitcher() {
     mFragmentSwitcher = (FragmentSwitcher) findViewById(R.id.fragment_switcher);
-    mFragmentAdapter = new FragmentStateArrayPagerAdapter(getSupportFragmentManager());
+    mFragmentAdapter = new FragmentStateFactoryPagerAdapter<SampleFragment>(getSupportFragmentManager());
+    mFragmentSwitcher.setSwitchPredictor(new SwitchPredictor(), 1);
+    mFragmentSwitcher.setSwitchTransition(SwitchTransition.fade(150));
+    mFragmentSwitcher.setStateRetainer(StateRetainer.from(getSupportFragmentManager()));
+    if (BuildConfig.DEBUG) {
+      LeakDetector leakDetector = new LeakDetector();
+      leakDetector.setOnLeakListener(new LeakDetector.OnLeakListener() {
+        @Override
+        public void onLeakSuspected(LeakReport report) {
+          if (report.isViewRetained()) {
+            Log.w(TAG, "Leaked view: " + report);
+          }
+        }
+      });
+      mFragmentSwitcher.setLeakDetector(leakDetector);
+    }
     mFragmentSwitcher.setAdapter(mFragmentAdapter);
   }
 
@@ -67,14 +94,25 @@ public class DrawerActivity extends FragmentActivity {
   private void initializeDrawer() {
     mDrawerLayout = (DrawerLayout) findViewById(R.id.drawer_layout);
     mDrawerToggle = new ActionBarDrawerToggle(this, mDrawerLayout, R.drawable.ic_drawer,
-        R.string.show, R.string.hide);
+        R.string.show, R.string.hide) {
+      @Override
+      public void onDrawerClosed(View view) {
+        super.onDrawerClosed(view);
+        if (mPendingPosition >= 0) {
+          mFragmentSwitcher.setCurrentItem(mPendingPosition);
+          mPendingPosition = -1;
+        }
+      }
+    };
     mDrawerLayout.setDrawerListener(mDrawerToggle);
     getActionBar().setDisplayHomeAsUpEnabled(true);
     mDrawerToggle.syncState();
   }
 
   /**
-   * Initializes the list that controls which fragment will be shown.
+   * Initializes the list that controls which fragment will be shown.  The fragment's
+   * layout is inflated in the background while the drawer closes, and the switch happens
+   * once it has closed.
    */
   private void initializeList() {
     mListView = (ListView) findViewById(R.id.drawer_list);
@@ -83,21 +121,23 @@ public class DrawerActivity extends FragmentActivity {
     mListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
       @Override
       public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
-        mFragmentSwitcher.setCurrentItem(position);
+        mPendingPosition = position;
+        mFragmentSwitcher.prefetch(position);
         mDrawerLayout.closeDrawer(Gravity.START);
       }
     });
   }
 
   /**
-   * Creates a list of fragments and list items and loads up the adapters.
+   * Creates a list of fragment factories and list items and loads up the adapters.
+   * The fragments themselves are only created when they are shown.
    */
   private void fillAdapters() {
-    List<Fragment> fragments = new ArrayList<Fragment>();
+    List<FragmentFactory<SampleFragment>> fragments = new ArrayList<FragmentFactory<SampleFragment>>();
     List<String> listItems = new ArrayList<String>();
     for (int i = 0; i < 100; i++) {
       String title = "Fragment #" + i;
-      fragments.add(SampleFragment.newInstance(title));
+      fragments.add(SampleFragment.newFactory(title));
       listItems.add(title);
     }
     mFragmentAdapter.addAll(fragments);
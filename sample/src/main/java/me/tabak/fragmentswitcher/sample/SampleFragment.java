@@ -30,6 +30,8 @@ import java.util.ArrayList;
 import java.util.Random;
 
 import de.svenjacobs.loremipsum.LoremIpsum;
+import me.tabak.fragmentswitcher.FragmentFactory;
+import me.tabak.fragmentswitcher.FragmentSwitcher;
 
 public class SampleFragment extends Fragment {
   public static final String KEY_TEXT = "text";
@@ -40,10 +42,19 @@ public class SampleFragment extends Fragment {
 
   public static SampleFragment newInstance(String text) {
     SampleFragment sampleFragment = new SampleFragment();
+    sampleFragment.setArguments(createArguments(text));
+    return sampleFragment;
+  }
+
+  public static FragmentFactory<SampleFragment> newFactory(String text) {
+    return FragmentFactory.forClass(SampleFragment.class, createArguments(text),
+        R.layout.fragment_sample);
+  }
+
+  private static Bundle createArguments(String text) {
     Bundle args = new Bundle();
     args.putString(KEY_TEXT, text);
-    sampleFragment.setArguments(args);
-    return sampleFragment;
+    return args;
   }
 
   @Override
@@ -71,7 +82,7 @@ public class SampleFragment extends Fragment {
   @Override
   public View onCreateView(LayoutInflater inflater, @Nullable ViewGroup container,
                            @Nullable Bundle savedInstanceState) {
-    return inflater.inflate(R.layout.fragment_sample, container, false);
+    return FragmentSwitcher.inflate(inflater, R.layout.fragment_sample, container);
   }
 
   @Override
@@ -83,6 +94,14 @@ public class SampleFragment extends Fragment {
     mListView.setAdapter(mListAdapter);
   }
 
+  @Override
+  public void onDestroyView() {
+    super.onDestroyView();
+    // The fragment outlives its view, so don't keep the view, or the adapter's observer on it.
+    mListView.setAdapter(null);
+    mListView = null;
+  }
+
   private ArrayList<String> generateRandomStrings() {
     ArrayList<String> strings = new ArrayList<String>(100);
     LoremIpsum loremIpsum = new LoremIpsum();